@@ -0,0 +1,174 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog.inputs.jmx.ConnectionRegistry;
+import org.graylog.inputs.jmx.HostStatistics;
+import org.graylog.inputs.jmx.JMXDiagnostics;
+import org.graylog.inputs.jmx.JMXTransport;
+import org.graylog.inputs.jmx.model.GLAttribute;
+import org.graylog.inputs.jmx.model.GLQuery;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+import org.graylog2.plugin.configuration.Configuration;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls a simulated fleet of JMX hosts with a real JMXTransport and reports
+ * the sustained poll rate, poll latency, thread count and heap use of the
+ * process. Options (all optional):
+ * <pre>
+ * --hosts=50 --mbeans=20 --attributes=5 --shape=simple|composite
+ * --latency=0 (ms per getAttributes) --failures=0.0 (probability per getAttributes)
+ * --interval=10 (s) --duration=180 (s) --report=10 (s) --port=19999
+ * </pre>
+ * Hosts listen on 127.0.x.y loopback addresses, which are routed to lo on Linux
+ * but need to be added as aliases on other systems. The transport connects to
+ * all hosts at launch and starts polling the ones it reached randomly within 5
+ * seconds, hosts it couldn't reach within 60 seconds.
+ */
+public class FleetSimulation {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int hosts = Integer.parseInt(option(options, "hosts", "50"));
+        int mbeans = Integer.parseInt(option(options, "mbeans", "20"));
+        int attributes = Integer.parseInt(option(options, "attributes", "5"));
+        String shape = option(options, "shape", SimulatedMBean.SIMPLE);
+        long latency = Long.parseLong(option(options, "latency", "0"));
+        double failures = Double.parseDouble(option(options, "failures", "0.0"));
+        int interval = Integer.parseInt(option(options, "interval", "10"));
+        int duration = Integer.parseInt(option(options, "duration", "180"));
+        int report = Integer.parseInt(option(options, "report", "10"));
+        int port = Integer.parseInt(option(options, "port", "19999"));
+
+        List<SimulatedHost> fleet = new ArrayList<>(hosts);
+        StringBuilder hostList = new StringBuilder();
+        for (int i = 0; i < hosts; i++) {
+            SimulatedHost host = new SimulatedHost("127.0." + (i / 250) + "." + (2 + i % 250), port);
+            host.register(mbeans, shape, attributes, latency, failures);
+            host.start();
+            fleet.add(host);
+            hostList.append(i == 0 ? "" : ",").append(host.getAddress());
+        }
+
+        File config = File.createTempFile("fleet-simulation", ".json");
+        config.deleteOnExit();
+        new ObjectMapper().writeValue(config, queryConfig(shape, attributes));
+
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("configHosts", hostList.toString());
+        settings.put("configPort", port);
+        settings.put("configLabel", "fleet-simulation");
+        settings.put("configInterval", interval);
+        settings.put("configIntervalUnit", TimeUnit.SECONDS.toString());
+        settings.put("configType", "custom");
+        settings.put("configCustomFilePath", config.getAbsolutePath());
+        Configuration configuration = new Configuration(settings);
+
+        JMXDiagnostics diagnostics = new JMXDiagnostics();
+        JMXTransport transport = new JMXTransport(configuration, new MetricRegistry(), new StubServerStatus(), diagnostics,
+                new ConnectionRegistry());
+        StubMessageInput input = new StubMessageInput(configuration, transport);
+        transport.launch(input);
+
+        System.out.printf("Polling %d hosts x %d MBeans x %d %s attributes every %ds%n",
+                hosts, mbeans, attributes, shape, interval);
+        System.out.println("elapsed  polls/s   kB/s  p50-last-ms  p99-ms  max-p99-ms  failing  threads  heap-MB");
+        long start = System.nanoTime();
+        long lastMessages = 0;
+        long lastBytes = 0;
+        for (int elapsed = report; elapsed <= duration; elapsed += report) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(report));
+            long messages = input.getMessages();
+            long bytes = input.getBytes();
+            printReport(diagnostics, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                    (messages - lastMessages) / (double) report, (bytes - lastBytes) / 1024.0 / report);
+            lastMessages = messages;
+            lastBytes = bytes;
+        }
+
+        transport.stop();
+        for (SimulatedHost host : fleet) {
+            host.stop();
+        }
+        System.exit(0);
+    }
+
+    private static void printReport(JMXDiagnostics diagnostics, long elapsed, double pollRate, double kbRate) {
+        List<HostStatistics> hosts = diagnostics.topHosts(new Comparator<HostStatistics>() {
+            @Override
+            public int compare(HostStatistics o1, HostStatistics o2) {
+                return Double.compare(o1.getP99LatencyMillis(), o2.getP99LatencyMillis());
+            }
+        }, Integer.MAX_VALUE, JMXDiagnostics.ALL_INPUTS);
+        List<Long> lastLatencies = new ArrayList<>();
+        double p99Sum = 0;
+        double p99Max = 0;
+        int failing = 0;
+        int polled = 0;
+        for (HostStatistics host : hosts) {
+            if (host.getLastPoll() == 0) {
+                continue;
+            }
+            polled++;
+            lastLatencies.add(host.getLastLatencyMillis());
+            p99Sum += host.getP99LatencyMillis();
+            p99Max = Math.max(p99Max, host.getP99LatencyMillis());
+            if (host.getErrorStreak() > 0) {
+                failing++;
+            }
+        }
+        Collections.sort(lastLatencies);
+        long median = lastLatencies.isEmpty() ? 0 : lastLatencies.get(lastLatencies.size() / 2);
+        System.out.printf("%6ds %8.1f %6.1f %12d %7.1f %11.1f %8d %8d %8d%n",
+                elapsed, pollRate, kbRate, median, polled == 0 ? 0 : p99Sum / polled, p99Max, failing,
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024));
+    }
+
+    private static GLQueryConfig queryConfig(String shape, int attributes) {
+        List<GLAttribute> glAttributes = new ArrayList<>();
+        for (int i = 0; i < attributes; i++) {
+            GLAttribute attribute = new GLAttribute();
+            attribute.setName(SimulatedMBean.attributeName(shape, i));
+            if (SimulatedMBean.COMPOSITE.equals(shape)) {
+                attribute.setKey("used");
+            }
+            attribute.setLabel("sim.{name}." + attribute.getName().toLowerCase(Locale.ENGLISH));
+            glAttributes.add(attribute);
+        }
+        GLQuery query = new GLQuery();
+        query.setObject(SimulatedHost.DOMAIN + ":type=Simulated,name=*");
+        query.setAttributes(glAttributes);
+        GLQueryConfig queryConfig = new GLQueryConfig();
+        queryConfig.setType("simulated");
+        queryConfig.setQueries(Collections.singletonList(query));
+        return queryConfig;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --option=value but got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
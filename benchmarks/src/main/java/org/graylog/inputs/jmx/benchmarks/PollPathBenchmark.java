@@ -0,0 +1,164 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.jmxtrans.jmx.JmxResultProcessor;
+import com.googlecode.jmxtrans.jmx.ResultBatch;
+import com.googlecode.jmxtrans.jmx.SeriesTable;
+import com.googlecode.jmxtrans.model.Result;
+import org.graylog.inputs.jmx.EventMapper;
+import org.graylog.inputs.jmx.LabelTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-poll cost of the result processing and GELF serialization hot path. One
+ * operation is one event, i.e. one poll of one host, so running with
+ * {@code -prof gc} reports the allocation per event as gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollPathBenchmark {
+
+    @Param({"jvm", "tomcat", "kafka"})
+    public String workload;
+
+    @Param({"1", "16"})
+    public int scale;
+
+    private List<Workload.Sample> samples;
+    private List<Result> results;
+    private List<Workload.Sample> resultSamples;
+    private EventMapper eventMapper;
+    private Map<String, Object> event;
+    private final SeriesTable seriesTable = new SeriesTable();
+    private final ResultBatch batch = new ResultBatch(seriesTable);
+    private final LabelTemplate label = LabelTemplate.compile("sample.{type}.{name}.{context}.count");
+
+    @Setup
+    public void setUp() throws Exception {
+        Workload w = Workload.create(workload, scale);
+        samples = w.getSamples();
+        eventMapper = w.getPlan().getEventMapper();
+        results = new ArrayList<>();
+        resultSamples = new ArrayList<>();
+        for (Workload.Sample sample : samples) {
+            for (Result result : process(sample)) {
+                results.add(result);
+                resultSamples.add(sample);
+            }
+        }
+        event = mapEvent();
+    }
+
+    @Benchmark
+    public void resultProcessing(Blackhole blackhole) {
+        for (Workload.Sample sample : samples) {
+            blackhole.consume(process(sample));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> eventMapping() {
+        return mapEvent();
+    }
+
+    @Benchmark
+    public byte[] serialization() throws Exception {
+        return eventMapper.serialize(event);
+    }
+
+    @Benchmark
+    public byte[] fullPoll() throws Exception {
+        Map<String, Object> event = newEvent();
+        for (Workload.Sample sample : samples) {
+            for (Result result : process(sample)) {
+                eventMapper.processResult(event, sample.query, sample.getObjectName(), result);
+            }
+        }
+        return eventMapper.serialize(event);
+    }
+
+    @Benchmark
+    public int batchProcessing() {
+        batch.clear(System.currentTimeMillis());
+        for (Workload.Sample sample : samples) {
+            processor(sample).addTo(batch, seriesTable);
+        }
+        return batch.size();
+    }
+
+    @Benchmark
+    public byte[] batchFullPoll() throws Exception {
+        Map<String, Object> event = newEvent();
+        for (Workload.Sample sample : samples) {
+            batch.clear(System.currentTimeMillis());
+            processor(sample).addTo(batch, seriesTable);
+            eventMapper.processBatch(event, sample.query, batch);
+        }
+        return eventMapper.serialize(event);
+    }
+
+    @Benchmark
+    public void sanitize(Blackhole blackhole) {
+        for (Workload.Sample sample : samples) {
+            for (String value : sample.getObjectName().getKeyPropertyList().values()) {
+                blackhole.consume(EventMapper.sanitize(value));
+            }
+        }
+    }
+
+    @Benchmark
+    public void formatLabel(Blackhole blackhole) {
+        for (Workload.Sample sample : samples) {
+            blackhole.consume(label.render(sample.getObjectName()));
+        }
+    }
+
+    private ImmutableList<Result> process(Workload.Sample sample) {
+        return processor(sample).getResults();
+    }
+
+    private static JmxResultProcessor processor(Workload.Sample sample) {
+        return new JmxResultProcessor(sample.query.getQuery(), sample.objectInstance, sample.attributes,
+                sample.className, sample.getObjectName().getDomain());
+    }
+
+    private Map<String, Object> mapEvent() {
+        Map<String, Object> event = newEvent();
+        for (int i = 0; i < results.size(); i++) {
+            Workload.Sample sample = resultSamples.get(i);
+            eventMapper.processResult(event, sample.query, sample.getObjectName(), results.get(i));
+        }
+        return event;
+    }
+
+    private static Map<String, Object> newEvent() {
+        Map<String, Object> event = new HashMap<>();
+        event.put("version", "1.1");
+        event.put("_object", "bench");
+        event.put("host", "bench-host");
+        event.put("_label", "bench");
+        event.put("short_message", "JMX");
+        return event;
+    }
+}
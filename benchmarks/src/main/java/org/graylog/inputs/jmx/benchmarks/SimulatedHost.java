@@ -0,0 +1,89 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Collections;
+
+/**
+ * An in-process MBean server behind a real RMI connector server. Every
+ * simulated host gets its own loopback address (127.0.0.x) so that all hosts
+ * can share the single JMX port the input is configured with.
+ */
+public class SimulatedHost {
+
+    static final String DOMAIN = "sim";
+
+    private final String address;
+    private final int port;
+    private final MBeanServer mBeanServer;
+    private Registry registry;
+    private JMXConnectorServer connectorServer;
+
+    public SimulatedHost(String address, int port) {
+        this.address = address;
+        this.port = port;
+        this.mBeanServer = MBeanServerFactory.newMBeanServer();
+    }
+
+    public void register(int mbeans, String shape, int attributes, long latencyMillis, double failureRate) throws Exception {
+        for (int i = 0; i < mbeans; i++) {
+            mBeanServer.registerMBean(new SimulatedMBean(shape, attributes, latencyMillis, failureRate),
+                    new ObjectName(DOMAIN + ":type=Simulated,name=bean" + i));
+        }
+    }
+
+    public void start() throws IOException {
+        registry = LocateRegistry.createRegistry(port, null, new AddressSocketFactory(address));
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi://" + address + "/jndi/rmi://" + address + ":" + port + "/jmxrmi");
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, Collections.<String, Object>emptyMap(), mBeanServer);
+        connectorServer.start();
+    }
+
+    public void stop() throws IOException {
+        if (connectorServer != null) {
+            connectorServer.stop();
+        }
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    private static class AddressSocketFactory implements RMIServerSocketFactory, Serializable {
+        private final String address;
+
+        AddressSocketFactory(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return new ServerSocket(port, 50, InetAddress.getByName(address));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof AddressSocketFactory && ((AddressSocketFactory) o).address.equals(address);
+        }
+
+        @Override
+        public int hashCode() {
+            return address.hashCode();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MBean with a configurable number of attributes, each either a plain long
+ * ("simple" shape) or a MemoryUsage like composite ("composite" shape).
+ * Attribute reads can be slowed down and made to fail randomly.
+ */
+public class SimulatedMBean implements DynamicMBean {
+
+    static final String SIMPLE = "simple";
+    static final String COMPOSITE = "composite";
+
+    private static final String[] USAGE_KEYS = {"init", "used", "committed", "max"};
+    private static final CompositeType USAGE_TYPE;
+
+    static {
+        try {
+            USAGE_TYPE = new CompositeType("Usage", "Usage", USAGE_KEYS, USAGE_KEYS,
+                    new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String shape;
+    private final int attributes;
+    private final long latencyMillis;
+    private final double failureRate;
+    private final AtomicLong counter = new AtomicLong();
+    private final MBeanInfo info;
+
+    public SimulatedMBean(String shape, int attributes, long latencyMillis, double failureRate) {
+        this.shape = shape;
+        this.attributes = attributes;
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        MBeanAttributeInfo[] attributeInfos = new MBeanAttributeInfo[attributes];
+        for (int i = 0; i < attributes; i++) {
+            attributeInfos[i] = new MBeanAttributeInfo(attributeName(shape, i),
+                    COMPOSITE.equals(shape) ? CompositeData.class.getName() : "long", "", true, false, false);
+        }
+        this.info = new MBeanInfo(getClass().getName(), "Simulated MBean", attributeInfos, null, null, null);
+    }
+
+    static String attributeName(String shape, int index) {
+        return (COMPOSITE.equals(shape) ? "Usage" : "Attr") + index;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        long value = counter.incrementAndGet();
+        if (COMPOSITE.equals(shape)) {
+            try {
+                return new CompositeDataSupport(USAGE_TYPE, USAGE_KEYS, new Object[]{value, value * 2, value * 3, value * 4});
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new IllegalStateException("Injected failure");
+        }
+        AttributeList list = new AttributeList(names.length);
+        for (String name : names) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException e) {
+                // skipped as done by a real MBean server
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+
+    int getAttributeCount() {
+        return attributes;
+    }
+}
@@ -0,0 +1,40 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import org.graylog.inputs.jmx.JMXInput;
+import org.graylog.inputs.jmx.JMXTransport;
+import org.graylog2.plugin.LocalMetricRegistry;
+import org.graylog2.plugin.configuration.Configuration;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.inputs.transports.Transport;
+import org.graylog2.plugin.journal.RawMessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message input that only counts what the transport hands over.
+ */
+public class StubMessageInput extends MessageInput {
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public StubMessageInput(Configuration configuration, Transport transport) {
+        super(new MetricRegistry(), configuration, transport, new LocalMetricRegistry(), null,
+                new MessageInput.Config(new JMXTransport.Config(), null), new JMXInput.Descriptor(), null);
+    }
+
+    @Override
+    public void processRawMessage(RawMessage rawMessage) {
+        messages.incrementAndGet();
+        bytes.addAndGet(rawMessage.getPayload().length);
+    }
+
+    public long getMessages() {
+        return messages.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
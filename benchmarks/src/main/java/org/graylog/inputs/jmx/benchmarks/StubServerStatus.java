@@ -0,0 +1,45 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import com.google.common.eventbus.EventBus;
+import org.graylog2.plugin.BaseConfiguration;
+import org.graylog2.plugin.ServerStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+
+/**
+ * Server status of a node without a server around it, so that the transport
+ * can be launched with host sharding enabled. The node id is kept in a
+ * temporary file.
+ */
+public class StubServerStatus extends ServerStatus {
+
+    public StubServerStatus() throws IOException {
+        super(new StubConfiguration(), Collections.singleton(Capability.SERVER), new EventBus());
+    }
+
+    private static class StubConfiguration extends BaseConfiguration {
+
+        private final String nodeIdFile;
+
+        StubConfiguration() throws IOException {
+            File file = File.createTempFile("fleet-simulation", ".node-id");
+            // the node id is generated into a file that doesn't exist yet
+            file.delete();
+            file.deleteOnExit();
+            this.nodeIdFile = file.getAbsolutePath();
+        }
+
+        @Override
+        public String getNodeIdFile() {
+            return nodeIdFile;
+        }
+
+        @Override
+        public URI getRestListenUri() {
+            return URI.create("http://127.0.0.1:12900/");
+        }
+    }
+}
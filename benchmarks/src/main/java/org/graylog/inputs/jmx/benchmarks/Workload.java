@@ -0,0 +1,207 @@
+package org.graylog.inputs.jmx.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.graylog.inputs.jmx.CompiledQuery;
+import org.graylog.inputs.jmx.QueryPlan;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+
+import javax.management.Attribute;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Synthetic MBeans shaped like the ones matched by the built-in jvm.json,
+ * tomcat.json and kafka.json configs. The scale multiplies the number of
+ * MBeans matched by wildcard queries (collectors, connectors, topics).
+ */
+public final class Workload {
+
+    public static final class Sample {
+        public final CompiledQuery query;
+        public final ObjectInstance objectInstance;
+        public final String className;
+        public final List<Attribute> attributes;
+
+        Sample(CompiledQuery query, ObjectInstance objectInstance, List<Attribute> attributes) {
+            this.query = query;
+            this.objectInstance = objectInstance;
+            this.className = objectInstance.getClassName();
+            this.attributes = attributes;
+        }
+
+        public ObjectName getObjectName() {
+            return objectInstance.getObjectName();
+        }
+    }
+
+    private static final CompositeType MEMORY_USAGE;
+    private static final CompositeType GC_INFO;
+    private static final TabularType MEMORY_USAGE_MAP;
+
+    static {
+        try {
+            MEMORY_USAGE = new CompositeType("java.lang.management.MemoryUsage", "MemoryUsage",
+                    new String[]{"init", "used", "committed", "max"},
+                    new String[]{"init", "used", "committed", "max"},
+                    new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+            CompositeType memoryUsageEntry = new CompositeType("MemoryUsageEntry", "MemoryUsageEntry",
+                    new String[]{"key", "value"},
+                    new String[]{"key", "value"},
+                    new OpenType<?>[]{SimpleType.STRING, MEMORY_USAGE});
+            MEMORY_USAGE_MAP = new TabularType("MemoryUsageMap", "MemoryUsageMap", memoryUsageEntry, new String[]{"key"});
+            GC_INFO = new CompositeType("com.sun.management.GcInfo", "GcInfo",
+                    new String[]{"id", "duration", "memoryUsageBeforeGc"},
+                    new String[]{"id", "duration", "memoryUsageBeforeGc"},
+                    new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, MEMORY_USAGE_MAP});
+        } catch (OpenDataException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final GLQueryConfig queryConfig;
+    private final QueryPlan plan;
+    private final List<Sample> samples;
+
+    private Workload(GLQueryConfig queryConfig, List<Sample> samples) {
+        this.queryConfig = queryConfig;
+        this.samples = samples;
+        this.plan = QueryPlan.compile(queryConfig);
+    }
+
+    public GLQueryConfig getQueryConfig() {
+        return queryConfig;
+    }
+
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    public List<Sample> getSamples() {
+        return samples;
+    }
+
+    public static Workload create(String type, int scale) throws Exception {
+        GLQueryConfig queryConfig = readConfig(type + ".json");
+        Workload workload = new Workload(queryConfig, new ArrayList<Sample>());
+        switch (type) {
+            case "jvm":
+                workload.jvm(scale);
+                break;
+            case "tomcat":
+                workload.tomcat(scale);
+                break;
+            case "kafka":
+                workload.kafka(scale);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown workload " + type);
+        }
+        return workload;
+    }
+
+    private void jvm(int scale) throws Exception {
+        add("java.lang:type=Memory", "java.lang:type=Memory", "sun.management.MemoryImpl",
+                new Attribute("HeapMemoryUsage", memoryUsage(1L << 30)),
+                new Attribute("NonHeapMemoryUsage", memoryUsage(1L << 26)));
+        add("java.lang:type=Threading", "java.lang:type=Threading", "sun.management.ThreadImpl",
+                new Attribute("ThreadCount", 187));
+        add("java.lang:type=ClassLoading", "java.lang:type=ClassLoading", "sun.management.ClassLoadingImpl",
+                new Attribute("LoadedClassCount", 12873));
+        for (int i = 0; i < 2 * scale; i++) {
+            add("java.lang:type=GarbageCollector,name=*", "java.lang:type=GarbageCollector,name=G1 Collector #" + i, "com.sun.management.internal.GarbageCollectorExtImpl",
+                    new Attribute("CollectionCount", 1000L + i),
+                    new Attribute("LastGcInfo", gcInfo(i)),
+                    new Attribute("MemoryPoolNames", new String[]{"G1 Eden Space", "G1 Old Gen", "G1 Survivor Space"}));
+        }
+        add("java.lang:type=OperatingSystem", "java.lang:type=OperatingSystem", "com.sun.management.internal.OperatingSystemImpl",
+                new Attribute("SystemLoadAverage", 2.37d),
+                new Attribute("ProcessCpuLoad", 0.12d));
+    }
+
+    private void tomcat(int scale) throws Exception {
+        for (int i = 0; i < 2 * scale; i++) {
+            String connector = "\"http-nio-" + (8080 + i) + "\"";
+            add("Catalina:type=ThreadPool,name=*", "Catalina:type=ThreadPool,name=" + connector, "org.apache.tomcat.util.net.NioEndpoint",
+                    new Attribute("currentThreadCount", 25),
+                    new Attribute("currentThreadsBusy", 7),
+                    new Attribute("maxThreads", 200));
+            add("Catalina:type=GlobalRequestProcessor,*", "Catalina:type=GlobalRequestProcessor,name=" + connector, "org.apache.coyote.RequestGroupInfo",
+                    new Attribute("bytesSent", 81237123L),
+                    new Attribute("bytesReceived", 2123123L),
+                    new Attribute("errorCount", 12),
+                    new Attribute("requestCount", 912381),
+                    new Attribute("maxTime", 5123L),
+                    new Attribute("processingTime", 9123123L));
+        }
+        for (int i = 0; i < 4 * scale; i++) {
+            add("Catalina:type=Cache,*", "Catalina:type=Cache,host=localhost,context=/app" + i, "org.apache.catalina.webresources.Cache",
+                    new Attribute("accessCount", 123123L),
+                    new Attribute("hitsCount", 120001L));
+        }
+    }
+
+    private void kafka(int scale) throws Exception {
+        for (int i = 0; i < scale; i++) {
+            String topic = scale == 1 ? "" : ",topic=orders-" + i;
+            add("kafka.server:type=BrokerTopicMetrics", "kafka.server:type=BrokerTopicMetrics" + topic, "com.yammer.metrics.reporting.JmxReporter$Meter",
+                    new Attribute("MessagesInPerSec", 1234.5d),
+                    new Attribute("BytesInPerSec", 523412.1d),
+                    new Attribute("BytesOutPerSec", 812341.7d));
+        }
+        add("kafka.server:type=ReplicaManager", "kafka.server:type=ReplicaManager", "com.yammer.metrics.reporting.JmxReporter$Meter",
+                new Attribute("IsrShrinksPerSec", 0.0d),
+                new Attribute("IsrExpandsPerSec", 0.0d));
+        add("kafka.controller:type=ControllerStats", "kafka.controller:type=ControllerStats", "com.yammer.metrics.reporting.JmxReporter$Timer",
+                new Attribute("LeaderElectionRateAndTimeMs", 0.3d),
+                new Attribute("UncleanLeaderElectionsPerSec", 0.0d));
+        add("kafka.log:type=LogFlushStats", "kafka.log:type=LogFlushStats", "com.yammer.metrics.reporting.JmxReporter$Timer",
+                new Attribute("LogFlushRateAndTimeMs", 12.8d));
+    }
+
+    private void add(String queryObject, String objectName, String className, Attribute... attributes)
+            throws MalformedObjectNameException {
+        for (CompiledQuery query : plan.getQueries()) {
+            if (query.getObject().equals(queryObject)) {
+                samples.add(new Sample(query, new ObjectInstance(new ObjectName(objectName), className),
+                        Arrays.asList(attributes)));
+                return;
+            }
+        }
+        throw new IllegalStateException("No query for " + queryObject);
+    }
+
+    private static CompositeData memoryUsage(long max) throws OpenDataException {
+        return new CompositeDataSupport(MEMORY_USAGE, new String[]{"init", "used", "committed", "max"},
+                new Object[]{max / 16, max / 3, max / 2, max});
+    }
+
+    private static CompositeData gcInfo(int id) throws OpenDataException {
+        TabularDataSupport before = new TabularDataSupport(MEMORY_USAGE_MAP);
+        for (String pool : new String[]{"G1 Eden Space", "G1 Old Gen", "G1 Survivor Space"}) {
+            before.put(new CompositeDataSupport(MEMORY_USAGE_MAP.getRowType(), new String[]{"key", "value"},
+                    new Object[]{pool, memoryUsage(1L << 28)}));
+        }
+        return new CompositeDataSupport(GC_INFO, new String[]{"id", "duration", "memoryUsageBeforeGc"},
+                new Object[]{(long) id, 12L, before});
+    }
+
+    private static GLQueryConfig readConfig(String resource) throws IOException {
+        try (InputStream stream = Workload.class.getClassLoader().getResourceAsStream(resource)) {
+            return new ObjectMapper().readValue(stream, GLQueryConfig.class);
+        }
+    }
+}
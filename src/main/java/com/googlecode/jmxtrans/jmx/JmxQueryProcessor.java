@@ -1,7 +1,7 @@
 package com.googlecode.jmxtrans.jmx;
 
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
 import com.googlecode.jmxtrans.model.Query;
 import com.googlecode.jmxtrans.model.Result;
 import org.slf4j.Logger;
@@ -11,48 +11,304 @@ import javax.management.*;
 import java.io.IOException;
 import java.rmi.UnmarshalException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class JmxQueryProcessor {
     private final Logger log = LoggerFactory.getLogger(getClass());
+    // last fetched ObjectName of each query polled in slices, by slice key
+    private final Map<String, ObjectName> cursors = new ConcurrentHashMap<>();
+    // class name of each fetched MBean, so its MBeanInfo is only loaded once
+    private final ConcurrentMap<ObjectName, String> classNames = new ConcurrentHashMap<>();
+    // ObjectNames last matched by each pattern and filter
+    private final ConcurrentMap<String, Set<ObjectName>> resolvedNames = new ConcurrentHashMap<>();
+    // queries whose ObjectNames were imported and not yet matched against the server
+    private final Set<String> unverified = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    // patterns and filters resolved in the current poll cycle, once cycles are started
+    private final Set<String> resolvedInCycle = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean cycles;
+    private final SeriesTable seriesTable = new SeriesTable();
+    private volatile RemovalListener removalListener;
+
+    /**
+     * Notified when an MBean fetched before is no longer matched by a query or is gone.
+     */
+    public interface RemovalListener {
+        void removed(ObjectName objectName);
+    }
+
+    public void setRemovalListener(RemovalListener removalListener) {
+        this.removalListener = removalListener;
+    }
 
     /**
      * Responsible for processing individual Queries.
      */
     public HashMultimap<ObjectName, Result> processQuery(MBeanServerConnection mbeanServer, Query query) throws Exception {
+        return processQuery(mbeanServer, query, new ObjectName(query.getObj()), null, null);
+    }
+
+    /**
+     * Processes a query whose ObjectName pattern and attribute names are already parsed.
+     *
+     * @param filter     evaluated by the MBean server to narrow the matched MBeans, null to fetch all
+     * @param attributes attribute names to fetch, null to use the attributes of the query
+     */
+    public HashMultimap<ObjectName, Result> processQuery(MBeanServerConnection mbeanServer, Query query,
+                                                         ObjectName oName, QueryExp filter,
+                                                         String[] attributes) throws Exception {
         HashMultimap<ObjectName, Result> objectResults = HashMultimap.create();
-        ObjectName oName = new ObjectName(query.getObj());
-        for (ObjectName queryName : mbeanServer.queryNames(oName, null)) {
-            ImmutableList<Result> results = fetchResults(mbeanServer, query, queryName);
-            for (Result result : results) {
-                objectResults.put(queryName, result);
+        processQuery(mbeanServer, query, oName, filter, attributes, 0, null, 0, objectResults);
+        return objectResults;
+    }
+
+    /**
+     * Processes at most maxPerCycle of the matched MBeans. Successive calls continue
+     * after the last fetched ObjectName in canonical name order and wrap around, so
+     * all matched MBeans are covered over several calls even if MBeans come and go.
+     *
+     * Stops fetching further MBeans once the deadline has passed. The results of each MBean
+     * are added to objectResults as soon as they are fetched, so a caller that gives up
+     * waiting still finds the results so far.
+     *
+     * @param maxPerCycle   maximum number of MBeans to fetch, 0 to fetch all
+     * @param sliceKey      key of the slice cursor, telling apart queries on the same pattern and filter
+     *                      that are sliced differently or polled at other intervals; null to key the
+     *                      cursor by pattern and filter
+     * @param deadlineNanos {@link System#nanoTime()} after which no further MBean is fetched, 0 for none
+     */
+    public void processQuery(MBeanServerConnection mbeanServer, Query query, ObjectName oName, QueryExp filter,
+                             String[] attributes, int maxPerCycle, String sliceKey, long deadlineNanos,
+                             Multimap<ObjectName, Result> objectResults) throws Exception {
+        processQuery(mbeanServer, query, oName, filter, attributes, maxPerCycle, sliceKey, deadlineNanos,
+                objectResults, null);
+    }
+
+    /**
+     * Like {@link #processQuery(MBeanServerConnection, Query, ObjectName, QueryExp, String[], int, String, long, Multimap)},
+     * but adds the values to the batch instead of creating Result objects. The series
+     * ids of the batch refer to the {@link #getSeriesTable() series table} of this processor.
+     */
+    public void processQuery(MBeanServerConnection mbeanServer, Query query, ObjectName oName, QueryExp filter,
+                             String[] attributes, int maxPerCycle, String sliceKey, long deadlineNanos,
+                             ResultBatch batch) throws Exception {
+        processQuery(mbeanServer, query, oName, filter, attributes, maxPerCycle, sliceKey, deadlineNanos, null, batch);
+    }
+
+    public SeriesTable getSeriesTable() {
+        return seriesTable;
+    }
+
+    /**
+     * Starts a poll cycle. Within a cycle the ObjectNames of a pattern and filter are
+     * resolved once and reused by the other queries on them, e.g. the static attributes
+     * of a query. Without cycles every call matches its query against the server.
+     */
+    public void startCycle() {
+        cycles = true;
+        resolvedInCycle.clear();
+    }
+
+    private void processQuery(MBeanServerConnection mbeanServer, Query query, ObjectName oName, QueryExp filter,
+                              String[] attributes, int maxPerCycle, String sliceKey, long deadlineNanos,
+                              Multimap<ObjectName, Result> objectResults, ResultBatch batch) throws Exception {
+        String key = namesKey(oName, filter);
+        Set<ObjectName> queryNames = resolveNames(mbeanServer, key, oName, filter);
+        boolean sliced = maxPerCycle > 0 && queryNames.size() > maxPerCycle;
+        String cursorKey = sliceKey != null ? sliceKey : key;
+        if (sliced) {
+            queryNames = nextSlice(cursorKey, queryNames, maxPerCycle);
+        }
+        for (ObjectName queryName : queryNames) {
+            if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0) {
+                log.debug("Deadline passed, skipping remaining MBeans of query [{}]", query);
+                break;
+            }
+            try {
+                JmxResultProcessor results = fetchResults(mbeanServer, query, queryName, attributes);
+                if (results != null) {
+                    if (batch != null) {
+                        results.addTo(batch, seriesTable);
+                        batch.addMBean();
+                    } else {
+                        objectResults.putAll(queryName, results.getResults());
+                    }
+                }
+            } catch (InstanceNotFoundException e) {
+                log.debug("MBean [{}] of query [{}] is gone", queryName, query);
+                forget(key, queryName);
+            }
+            // the next slice continues after the last MBean done in time; one finished after
+            // the deadline may not have been taken by the caller and is fetched again
+            if (sliced && (deadlineNanos == 0 || System.nanoTime() - deadlineNanos < 0)) {
+                cursors.put(cursorKey, queryName);
             }
         }
-        return objectResults;
     }
 
-    private ImmutableList<Result> fetchResults(MBeanServerConnection mbeanServer, Query query, ObjectName queryName) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
-        MBeanInfo info = mbeanServer.getMBeanInfo(queryName);
-        ObjectInstance oi = mbeanServer.getObjectInstance(queryName);
+    /**
+     * The ObjectNames matched by the query. Imported ObjectNames are used for one
+     * cycle without asking the server, unregistered ones are dropped when fetching
+     * fails and the next cycle matches the query against the server again.
+     */
+    private Set<ObjectName> resolveNames(MBeanServerConnection mbeanServer, String key, ObjectName oName,
+                                         QueryExp filter) throws IOException {
+        if (cycles && resolvedInCycle.contains(key)) {
+            Set<ObjectName> resolved = resolvedNames.get(key);
+            if (resolved != null) {
+                return new LinkedHashSet<>(resolved);
+            }
+        }
+        if (unverified.remove(key)) {
+            Set<ObjectName> imported = resolvedNames.get(key);
+            if (imported != null) {
+                resolvedInCycle.add(key);
+                return new LinkedHashSet<>(imported);
+            }
+        }
+        Set<ObjectName> queryNames = mbeanServer.queryNames(oName, filter);
+        resolvedInCycle.add(key);
+        Set<ObjectName> previous = resolvedNames.put(key, Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>()));
+        resolvedNames.get(key).addAll(queryNames);
+        if (previous != null) {
+            for (ObjectName name : previous) {
+                if (!queryNames.contains(name)) {
+                    removed(name);
+                }
+            }
+        }
+        return queryNames;
+    }
+
+    private void forget(String key, ObjectName queryName) {
+        removed(queryName);
+        Set<ObjectName> names = resolvedNames.get(key);
+        if (names != null) {
+            names.remove(queryName);
+        }
+    }
+
+    private void removed(ObjectName objectName) {
+        classNames.remove(objectName);
+        seriesTable.remove(objectName);
+        RemovalListener listener = removalListener;
+        if (listener != null) {
+            listener.removed(objectName);
+        }
+    }
+
+    /**
+     * The ObjectNames matched by each query and the class names of the fetched
+     * MBeans, keyed by the query and the canonical ObjectName. Imported queries
+     * that weren't processed since are left out.
+     */
+    public Map<String, Map<String, String>> exportInventory() {
+        Map<String, Map<String, String>> inventory = new HashMap<>();
+        for (Map.Entry<String, Set<ObjectName>> entry : resolvedNames.entrySet()) {
+            if (unverified.contains(entry.getKey())) {
+                continue;
+            }
+            Map<String, String> names = new HashMap<>();
+            for (ObjectName name : entry.getValue()) {
+                String className = classNames.get(name);
+                if (className != null) {
+                    names.put(name.getCanonicalName(), className);
+                }
+            }
+            inventory.put(entry.getKey(), names);
+        }
+        return inventory;
+    }
+
+    /**
+     * Restores an inventory returned by {@link #exportInventory()}. The next
+     * call of each imported query fetches the imported MBeans without matching
+     * the query against the server first.
+     */
+    public void importInventory(Map<String, Map<String, String>> inventory) {
+        for (Map.Entry<String, Map<String, String>> entry : inventory.entrySet()) {
+            Set<ObjectName> names = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+            for (Map.Entry<String, String> name : entry.getValue().entrySet()) {
+                try {
+                    ObjectName objectName = new ObjectName(name.getKey());
+                    names.add(objectName);
+                    classNames.put(objectName, name.getValue());
+                } catch (MalformedObjectNameException e) {
+                    log.debug("Ignoring invalid ObjectName [{}] of the inventory", name.getKey());
+                }
+            }
+            resolvedNames.put(entry.getKey(), names);
+            unverified.add(entry.getKey());
+        }
+    }
+
+    /**
+     * The next maxPerCycle ObjectNames after the cursor, wrapping around. The cursor
+     * is only moved as the MBeans of the slice are fetched.
+     */
+    private Set<ObjectName> nextSlice(String cursorKey, Set<ObjectName> queryNames, int maxPerCycle) {
+        TreeSet<ObjectName> sorted = new TreeSet<>(queryNames);
+        ObjectName cursor = cursors.get(cursorKey);
+        Set<ObjectName> slice = new LinkedHashSet<>(maxPerCycle);
+        Iterator<ObjectName> it = cursor == null ? sorted.iterator() : sorted.tailSet(cursor, false).iterator();
+        while (slice.size() < maxPerCycle) {
+            if (!it.hasNext()) {
+                it = sorted.iterator();
+            }
+            slice.add(it.next());
+        }
+        return slice;
+    }
+
+    private static String namesKey(ObjectName oName, QueryExp filter) {
+        return filter == null ? oName.getCanonicalName() : oName.getCanonicalName() + "|" + filter;
+    }
+
+    /**
+     * Fetches the attributes of the MBean.
+     *
+     * @return null if there are no attributes to fetch or they can't be unmarshalled
+     */
+    private JmxResultProcessor fetchResults(MBeanServerConnection mbeanServer, Query query, ObjectName queryName,
+                                            String[] attributes) throws InstanceNotFoundException, IntrospectionException, ReflectionException, IOException {
+        String className = classNames.get(queryName);
+        MBeanInfo info = null;
+        if (className == null || attributes == null) {
+            info = mbeanServer.getMBeanInfo(queryName);
+            className = info.getClassName();
+            classNames.put(queryName, className);
+        }
+        ObjectInstance oi = new ObjectInstance(queryName, className);
 
-        List<String> attributes;
-        if (query.getAttr().isEmpty()) {
-            attributes = new ArrayList<>();
-            for (MBeanAttributeInfo attrInfo : info.getAttributes()) {
-                attributes.add(attrInfo.getName());
+        if (attributes == null) {
+            List<String> attributeList;
+            if (query.getAttr().isEmpty()) {
+                attributeList = new ArrayList<>();
+                for (MBeanAttributeInfo attrInfo : info.getAttributes()) {
+                    attributeList.add(attrInfo.getName());
+                }
+            } else {
+                attributeList = query.getAttr();
             }
-        } else {
-            attributes = query.getAttr();
+            attributes = attributeList.toArray(new String[attributeList.size()]);
         }
 
-        ImmutableList<Result> results = ImmutableList.of();
+        JmxResultProcessor results = null;
         try {
-            if (attributes.size() > 0) {
+            if (attributes.length > 0) {
                 log.debug("Executing queryName [{}] from query [{}]", queryName.getCanonicalName(), query);
 
-                AttributeList al = mbeanServer.getAttributes(queryName, attributes.toArray(new String[attributes.size()]));
+                AttributeList al = mbeanServer.getAttributes(queryName, attributes);
 
-                results = new JmxResultProcessor(query, oi, al.asList(), info.getClassName(), queryName.getDomain()).getResults();
+                results = new JmxResultProcessor(query, oi, al.asList(), className, queryName.getDomain());
             }
         } catch (UnmarshalException ue) {
             if ((ue.getCause() != null) && (ue.getCause() instanceof ClassNotFoundException)) {
@@ -1,7 +1,6 @@
 package com.googlecode.jmxtrans.jmx;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.googlecode.jmxtrans.model.Query;
 import com.googlecode.jmxtrans.model.Result;
 
@@ -13,7 +12,6 @@ import javax.management.openmbean.CompositeDataSupport;
 import javax.management.openmbean.CompositeType;
 import javax.management.openmbean.TabularDataSupport;
 import java.lang.reflect.Array;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -39,100 +37,155 @@ public class JmxResultProcessor {
     }
 
     public ImmutableList<Result> getResults() {
-        Builder<Result> accumulator = ImmutableList.builder();
+        final Builder<Result> accumulator = ImmutableList.builder();
+        process(new ResultSink() {
+            private String attributeName;
+            private Map<String, Object> values;
+
+            @Override
+            public void begin(String attributeName) {
+                this.attributeName = attributeName;
+                this.values = newHashMap();
+            }
+
+            @Override
+            public void value(String key, Object value) {
+                values.put(key, value);
+            }
+
+            @Override
+            public void end() {
+                accumulator.add(getNewResultObject(attributeName, values));
+            }
+        });
+        return accumulator.build();
+    }
+
+    /**
+     * Adds the values of the attributes to the batch, without building Result objects.
+     */
+    public void addTo(final ResultBatch batch, final SeriesTable seriesTable) {
+        final ObjectName objectName = objectInstance.getObjectName();
+        process(new ResultSink() {
+            private String attributeName;
+
+            @Override
+            public void begin(String attributeName) {
+                this.attributeName = attributeName;
+            }
+
+            @Override
+            public void value(String key, Object value) {
+                batch.add(seriesTable.intern(objectName, attributeName, key), value);
+            }
+
+            @Override
+            public void end() {
+            }
+        });
+    }
+
+    /**
+     * Receives the flattened attributes, one group of values per Result.
+     */
+    private interface ResultSink {
+        void begin(String attributeName);
+
+        void value(String key, Object value);
+
+        void end();
+    }
+
+    private void process(ResultSink sink) {
         for (Attribute attribute : attributes) {
-            getResult(accumulator, attribute);
+            getResult(sink, attribute);
         }
-        return accumulator.build();
     }
 
     /**
      * Used when the object is effectively a java type
      */
-    private void getResult(Builder<Result> accumulator, Attribute attribute) {
+    private void getResult(ResultSink sink, Attribute attribute) {
         Object value = attribute.getValue();
         if (value == null) {
             return;
         }
 
         if (value instanceof CompositeData) {
-            getResult(accumulator, attribute.getName(), (CompositeData) value);
+            getResult(sink, attribute.getName(), (CompositeData) value);
         } else if (value instanceof CompositeData[]) {
             for (CompositeData cd : (CompositeData[]) value) {
-                getResult(accumulator, attribute.getName(), cd);
+                getResult(sink, attribute.getName(), cd);
             }
         } else if (value instanceof ObjectName[]) {
-            Map<String, Object> values = newHashMap();
+            sink.begin(attribute.getName());
             for (ObjectName obj : (ObjectName[]) value) {
-                values.put(obj.getCanonicalName(), obj.getKeyPropertyListString());
+                sink.value(obj.getCanonicalName(), obj.getKeyPropertyListString());
             }
-            Result r = getNewResultObject(attribute.getName(), values);
-            accumulator.add(r);
+            sink.end();
         } else if (value.getClass().isArray()) {
             // OMFG: this is nutty. some of the items in the array can be
             // primitive! great interview question!
-            Map<String, Object> values = newHashMap();
+            sink.begin(attribute.getName());
             for (int i = 0; i < Array.getLength(value); i++) {
                 Object val = Array.get(value, i);
-                values.put(attribute.getName() + SEPERATOR + i, val);
+                sink.value(attribute.getName() + SEPERATOR + i, val);
             }
-            accumulator.add(getNewResultObject(attribute.getName(), values));
+            sink.end();
         } else if (value instanceof TabularDataSupport) {
             TabularDataSupport tds = (TabularDataSupport) value;
-            Map<String, Object> values = Collections.emptyMap();
-            Result r = getNewResultObject(attribute.getName(), values);
-            processTabularDataSupport(accumulator, attribute.getName(), tds);
-            accumulator.add(r);
+            processTabularDataSupport(sink, attribute.getName(), tds);
+            sink.begin(attribute.getName());
+            sink.end();
         }  else if (value instanceof Map) {
-            Result r = getNewResultObject(attribute.getName(), convertKeysToString((Map<Object, Object>) value));
-            accumulator.add(r);
+            sink.begin(attribute.getName());
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sink.value(entry.getKey().toString(), entry.getValue());
+            }
+            sink.end();
         } else {
-            Map<String, Object> values = newHashMap();
-            values.put(attribute.getName(), value);
-            Result r = getNewResultObject(attribute.getName(), values);
-            accumulator.add(r);
-        }
-    }
-
-    private <K, V> ImmutableMap<String, V> convertKeysToString(Map<K, V> value) {
-        ImmutableMap.Builder<String, V> values = ImmutableMap.builder();
-        for (Map.Entry<K, V> entry : value.entrySet()) {
-            values.put(entry.getKey().toString(), entry.getValue());
+            sink.begin(attribute.getName());
+            sink.value(attribute.getName(), value);
+            sink.end();
         }
-        return values.build();
     }
 
     /**
      * Populates the Result objects. This is a recursive function. Query
      * contains the keys that we want to get the values of.
      */
-    private void getResult(Builder<Result> accumulator, String attributeName, CompositeData cds) {
+    private void getResult(ResultSink sink, String attributeName, CompositeData cds) {
         CompositeType t = cds.getCompositeType();
 
-        Map<String, Object> values = newHashMap();
-
         Set<String> keys = t.keySet();
+        // a nested composite replaces the values of this one
+        String nested = null;
+        for (String key : keys) {
+            if (cds.get(key) instanceof CompositeDataSupport) {
+                nested = key;
+                break;
+            }
+        }
         for (String key : keys) {
             Object value = cds.get(key);
             if (value instanceof TabularDataSupport) {
                 TabularDataSupport tds = (TabularDataSupport) value;
-                processTabularDataSupport(accumulator, attributeName + SEPERATOR + key, tds);
-                values.put(key, value);
-            } else if (value instanceof CompositeDataSupport) {
+                processTabularDataSupport(sink, attributeName + SEPERATOR + key, tds);
+            } else if (key.equals(nested)) {
                 // now recursively go through everything.
-                CompositeDataSupport cds2 = (CompositeDataSupport) value;
-                getResult(accumulator, attributeName, cds2);
+                getResult(sink, attributeName, (CompositeDataSupport) value);
                 return; // because we don't want to add to the list yet.
-            } else {
-                values.put(key, value);
             }
         }
-        Result r = getNewResultObject(attributeName, values);
-        accumulator.add(r);
+        sink.begin(attributeName);
+        for (String key : keys) {
+            sink.value(key, cds.get(key));
+        }
+        sink.end();
     }
 
     private void processTabularDataSupport(
-            Builder<Result> accumulator, String attributeName,
+            ResultSink sink, String attributeName,
             TabularDataSupport tds) {
         Set<Map.Entry<Object, Object>> entries = tds.entrySet();
         for (Map.Entry<Object, Object> entry : entries) {
@@ -149,7 +202,7 @@ public class JmxResultProcessor {
                 String attributeName2 = sb.toString();
                 Object entryValue = entry.getValue();
                 if (entryValue instanceof CompositeDataSupport) {
-                    getResult(accumulator, attributeName + attributeName2, (CompositeDataSupport) entryValue);
+                    getResult(sink, attributeName + attributeName2, (CompositeDataSupport) entryValue);
                 } else {
                     throw new RuntimeException("!!!!!!!!!! Please file a bug: https://github.com/jmxtrans/jmxtrans/issues entryValue is: "
                             + entryValue.getClass().getCanonicalName());
@@ -0,0 +1,174 @@
+package com.googlecode.jmxtrans.jmx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The values fetched by one query in one poll, stored column-wise: the series
+ * id of each value, long and double values as raw bits in a primitive array and
+ * other values in a side table, with a single timestamp for the batch. A batch
+ * is meant to be cleared and refilled every poll, so steady state polls only
+ * allocate the boxes of values that aren't numbers already.
+ * <p>
+ * Filled by the thread fetching the values. Readers either wait for the filling
+ * to complete or take a {@link #copy()} while the batch is still being filled,
+ * and a batch handed to readers with other series tables is {@link #detach() detached}.
+ */
+public class ResultBatch {
+
+    public static final byte LONG = 0;
+    public static final byte DOUBLE = 1;
+    public static final byte OBJECT = 2;
+
+    private final SeriesTable seriesTable;
+    private int[] series = new int[64];
+    private long[] values = new long[64];
+    private byte[] kinds = new byte[64];
+    private final List<Object> objects = new ArrayList<>();
+    private int size;
+    // the size after the last MBean whose values were added completely
+    private int completed;
+    private int mbeans;
+    // when the values were fetched, the same for all batches of one poll
+    private long epoch;
+
+    public ResultBatch(SeriesTable seriesTable) {
+        this.seriesTable = seriesTable;
+    }
+
+    /**
+     * Empties the batch for the next poll, keeping its arrays.
+     *
+     * @param epochMillis the time of the poll the batch is filled by
+     */
+    public synchronized void clear(long epochMillis) {
+        size = 0;
+        completed = 0;
+        mbeans = 0;
+        objects.clear();
+        epoch = epochMillis;
+    }
+
+    synchronized void add(int id, Object value) {
+        if (size == series.length) {
+            series = Arrays.copyOf(series, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            kinds = Arrays.copyOf(kinds, size * 2);
+        }
+        series[size] = id;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            kinds[size] = LONG;
+            values[size] = ((Number) value).longValue();
+        } else if (value instanceof Double) {
+            kinds[size] = DOUBLE;
+            values[size] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+        } else {
+            kinds[size] = OBJECT;
+            values[size] = objects.size();
+            objects.add(value);
+        }
+        size++;
+    }
+
+    /**
+     * Counts an MBean whose attributes were added.
+     */
+    synchronized void addMBean() {
+        completed = size;
+        mbeans++;
+    }
+
+    /**
+     * A copy of the values of the MBeans added completely so far, so a copy taken
+     * while the batch is still being filled holds no MBean with only part of its values.
+     */
+    public synchronized ResultBatch copy() {
+        ResultBatch copy = new ResultBatch(seriesTable);
+        copy.series = Arrays.copyOf(series, Math.max(1, completed));
+        copyValues(copy);
+        return copy;
+    }
+
+    /**
+     * A copy of the values whose series are interned in a series table of its own.
+     * Unlike a {@link #copy()}, it stays valid when MBeans are removed from the
+     * series table of this batch and their ids are reused, so it can be handed to
+     * readers with other series tables.
+     */
+    public synchronized ResultBatch detach() {
+        SeriesTable detached = new SeriesTable();
+        ResultBatch copy = new ResultBatch(detached);
+        copy.series = new int[Math.max(1, completed)];
+        for (int i = 0; i < completed; i++) {
+            int id = series[i];
+            copy.series[i] = detached.intern(seriesTable.getObjectName(id), seriesTable.getAttributeName(id),
+                    seriesTable.getKey(id));
+        }
+        copyValues(copy);
+        return copy;
+    }
+
+    private void copyValues(ResultBatch copy) {
+        copy.values = Arrays.copyOf(values, Math.max(1, completed));
+        copy.kinds = Arrays.copyOf(kinds, Math.max(1, completed));
+        copy.objects.addAll(objects);
+        copy.size = completed;
+        copy.completed = completed;
+        copy.mbeans = mbeans;
+        copy.epoch = epoch;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of MBeans whose attributes were fetched.
+     */
+    public int getMBeanCount() {
+        return mbeans;
+    }
+
+    /**
+     * The time of the poll that fetched the values, kept by copies so that a result
+     * used by a later poll is still published with the time it was fetched.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public SeriesTable getSeriesTable() {
+        return seriesTable;
+    }
+
+    public int getSeries(int index) {
+        return series[index];
+    }
+
+    public byte getKind(int index) {
+        return kinds[index];
+    }
+
+    public long getLong(int index) {
+        return values[index];
+    }
+
+    public double getDouble(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    /**
+     * The value at the index, boxed unless it is a non numeric value of the side table.
+     */
+    public Object getValue(int index) {
+        switch (kinds[index]) {
+            case LONG:
+                return values[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(values[index]);
+            default:
+                return objects.get((int) values[index]);
+        }
+    }
+}
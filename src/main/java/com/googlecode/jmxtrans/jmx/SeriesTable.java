@@ -0,0 +1,90 @@
+package com.googlecode.jmxtrans.jmx;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns the series of a server, i.e. the (ObjectName, attribute, value key)
+ * triples of the fetched values, as small int ids. Looking up a known series
+ * allocates nothing. The ids of an MBean are released when it is removed and
+ * reused for new series, so an id is only meaningful until its MBean is removed.
+ */
+public class SeriesTable {
+
+    private final Map<ObjectName, Map<String, Map<String, Integer>>> ids = new HashMap<>();
+    private final List<Integer> free = new ArrayList<>();
+    private ObjectName[] objectNames = new ObjectName[64];
+    private String[] attributeNames = new String[64];
+    private String[] keys = new String[64];
+    private int size;
+
+    synchronized int intern(ObjectName objectName, String attributeName, String key) {
+        Map<String, Map<String, Integer>> attributes = ids.get(objectName);
+        if (attributes == null) {
+            attributes = new HashMap<>();
+            ids.put(objectName, attributes);
+        }
+        Map<String, Integer> attributeKeys = attributes.get(attributeName);
+        if (attributeKeys == null) {
+            attributeKeys = new HashMap<>();
+            attributes.put(attributeName, attributeKeys);
+        }
+        Integer id = attributeKeys.get(key);
+        if (id == null) {
+            id = free.isEmpty() ? size++ : free.remove(free.size() - 1);
+            if (id == objectNames.length) {
+                objectNames = Arrays.copyOf(objectNames, id * 2);
+                attributeNames = Arrays.copyOf(attributeNames, id * 2);
+                keys = Arrays.copyOf(keys, id * 2);
+            }
+            objectNames[id] = objectName;
+            attributeNames[id] = attributeName;
+            keys[id] = key;
+            attributeKeys.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Releases the ids of the series of the MBean.
+     */
+    synchronized void remove(ObjectName objectName) {
+        Map<String, Map<String, Integer>> attributes = ids.remove(objectName);
+        if (attributes != null) {
+            for (Map<String, Integer> attributeKeys : attributes.values()) {
+                for (Integer id : attributeKeys.values()) {
+                    objectNames[id] = null;
+                    attributeNames[id] = null;
+                    keys[id] = null;
+                    free.add(id);
+                }
+            }
+        }
+    }
+
+    public synchronized ObjectName getObjectName(int id) {
+        return objectNames[id];
+    }
+
+    public synchronized String getAttributeName(int id) {
+        return attributeNames[id];
+    }
+
+    /**
+     * The key of the value within the attribute, the attribute name for simple attributes.
+     */
+    public synchronized String getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * The number of interned series.
+     */
+    public synchronized int size() {
+        return size - free.size();
+    }
+}
@@ -218,7 +218,12 @@ public class Server {
         // throw exception at construction if both url and host are set
         // we might also be able to use java.net.URI to parse the URL, but I'm
         // not familiar enough with JMX URLs to think of the test cases ...
-        return url.substring(url.lastIndexOf("//") + 2, url.lastIndexOf(':'));
+        String extracted = url.substring(url.lastIndexOf("//") + 2, url.lastIndexOf(':'));
+        // IPv6 literals are bracketed in URLs, e.g. rmi://[::1]:9010
+        if (extracted.startsWith("[") && extracted.endsWith("]")) {
+            return extracted.substring(1, extracted.length() - 1);
+        }
+        return extracted;
     }
 
     public String getPort() {
@@ -270,7 +275,8 @@ public class Server {
             if ((this.host == null) || (this.port == null)) {
                 throw new RuntimeException("url is null and host or port is null. cannot construct url dynamically.");
             }
-            return FRONT + this.host + ":" + this.port + BACK;
+            String urlHost = this.host.indexOf(':') >= 0 ? "[" + this.host + "]" : this.host;
+            return FRONT + urlHost + ":" + this.port + BACK;
         }
         return this.url;
     }
@@ -0,0 +1,220 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableMap;
+import com.googlecode.jmxtrans.model.Query;
+import org.graylog.inputs.jmx.model.GLAttribute;
+import org.graylog.inputs.jmx.model.GLQuery;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A validated query of a query config: the parsed ObjectName pattern, the
+ * attribute names to fetch on every poll and once per connection, and the
+ * label of every attribute/key projection.
+ */
+public final class CompiledQuery {
+
+    private final String object;
+    private final ObjectName objectName;
+    private final QueryExp filter;
+    private final Query query;
+    private final String[] attributes;
+    private final String[] staticAttributes;
+    private final ImmutableMap<String, LabelTemplate> labels;
+    private final long intervalMillis;
+    private final int maxPerCycle;
+    private final int maxFields;
+    private final int priority;
+    private final String fetchKey;
+    private final String key;
+
+    private CompiledQuery(String object, String filterText, ObjectName objectName, QueryExp filter, Query query,
+                          String[] attributes,
+                          String[] staticAttributes, ImmutableMap<String, LabelTemplate> labels, long intervalMillis,
+                          int maxPerCycle, int maxFields, int priority) {
+        this.object = object;
+        this.objectName = objectName;
+        this.filter = filter;
+        this.query = query;
+        this.attributes = attributes;
+        this.staticAttributes = staticAttributes;
+        this.labels = labels;
+        this.intervalMillis = intervalMillis;
+        this.maxPerCycle = maxPerCycle;
+        this.maxFields = maxFields;
+        this.priority = priority;
+        this.fetchKey = objectName.getCanonicalName() + '|' + filter + '|' + Arrays.toString(attributes);
+        this.key = object + (filterText == null ? "" : " [" + filterText + "]")
+                + (intervalMillis == 0 ? "" : " every " + TimeUnit.MILLISECONDS.toSeconds(intervalMillis) + "s")
+                + (maxPerCycle == 0 ? "" : " max " + maxPerCycle);
+    }
+
+    public static CompiledQuery compile(GLQuery glQuery) {
+        String object = glQuery.getObject();
+        if (object == null || object.trim().isEmpty()) {
+            throw new IllegalArgumentException("Query without object name");
+        }
+        ObjectName objectName;
+        try {
+            objectName = new ObjectName(object);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Malformed object name " + object + ": " + e.getMessage(), e);
+        }
+        if (glQuery.getAttributes() == null || glQuery.getAttributes().isEmpty()) {
+            throw new IllegalArgumentException("No attributes configured for " + object);
+        }
+        if (glQuery.getInterval() != null && glQuery.getInterval() <= 0) {
+            throw new IllegalArgumentException("Interval of " + object + " must be positive");
+        }
+        long intervalMillis = glQuery.getInterval() == null ? 0 : TimeUnit.SECONDS.toMillis(glQuery.getInterval());
+        if (glQuery.getMaxPerCycle() != null && glQuery.getMaxPerCycle() <= 0) {
+            throw new IllegalArgumentException("maxPerCycle of " + object + " must be positive");
+        }
+        if (glQuery.getMaxFields() != null && glQuery.getMaxFields() <= 0) {
+            throw new IllegalArgumentException("maxFields of " + object + " must be positive");
+        }
+        QueryExp filter = null;
+        String filterText = null;
+        if (glQuery.getFilter() != null && !glQuery.getFilter().trim().isEmpty()) {
+            filterText = glQuery.getFilter().trim();
+            filter = QueryFilter.compile(filterText);
+        }
+
+        Set<String> attributes = new LinkedHashSet<>();
+        Set<String> staticAttributes = new LinkedHashSet<>();
+        Map<String, LabelTemplate> labels = new HashMap<>();
+        for (GLAttribute attribute : glQuery.getAttributes()) {
+            if (attribute.getName() == null || attribute.getName().isEmpty()) {
+                throw new IllegalArgumentException("Attribute without name in " + object);
+            }
+            if (attribute.isStatic()) {
+                staticAttributes.add(attribute.getName());
+            } else {
+                attributes.add(attribute.getName());
+            }
+            if (attribute.getLabel() != null) {
+                try {
+                    labels.put(projectionKey(attribute.getName(), attribute.getKey()), LabelTemplate.compile(attribute.getLabel()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(e.getMessage() + " of " + object, e);
+                }
+            }
+        }
+
+        // an attribute with any non static projection is fetched on every poll anyway
+        staticAttributes.removeAll(attributes);
+
+        Query.Builder queryBuilder = Query.builder().setObj(object);
+        for (String attribute : attributes) {
+            queryBuilder.addAttr(attribute);
+        }
+        for (String attribute : staticAttributes) {
+            queryBuilder.addAttr(attribute);
+        }
+        return new CompiledQuery(object, filterText, objectName, filter, queryBuilder.build(),
+                attributes.toArray(new String[attributes.size()]),
+                staticAttributes.toArray(new String[staticAttributes.size()]),
+                ImmutableMap.copyOf(labels), intervalMillis,
+                glQuery.getMaxPerCycle() == null ? 0 : glQuery.getMaxPerCycle(),
+                glQuery.getMaxFields() == null ? 0 : glQuery.getMaxFields(),
+                glQuery.getPriority() == null ? 0 : glQuery.getPriority());
+    }
+
+    static String projectionKey(String attribute, String key) {
+        return key == null ? attribute : attribute + key;
+    }
+
+    public String getObject() {
+        return object;
+    }
+
+    /**
+     * Identifies the query in per-query state, statistics and messages: its pattern
+     * with the filter, interval and slicing that set it apart from other queries on
+     * the same pattern, e.g. {@code kafka.log:type=Log,* [key.topic like 'orders-*'] every 300s}.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Identifies what the query fetches, i.e. its MBeans and attributes. Queries of
+     * different configs with the same fetch key get the same results.
+     */
+    public String getFetchKey() {
+        return fetchKey;
+    }
+
+    /**
+     * The compiled filter of the query, null if all matched MBeans are fetched.
+     */
+    public QueryExp getFilter() {
+        return filter;
+    }
+
+    /**
+     * Maximum number of matched MBeans fetched per poll, 0 if all are fetched every poll.
+     */
+    public int getMaxPerCycle() {
+        return maxPerCycle;
+    }
+
+    /**
+     * Maximum number of distinct fields rendered from the labels of the query, 0 for no limit.
+     */
+    public int getMaxFields() {
+        return maxFields;
+    }
+
+    /**
+     * Queries of lower priority are shed first under rate limiting.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * Attributes to fetch on every poll. Shared array, must not be modified.
+     */
+    public String[] getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Attributes to fetch once per connection. Shared array, must not be modified.
+     */
+    public String[] getStaticAttributes() {
+        return staticAttributes;
+    }
+
+    /**
+     * The polling interval of the query, or the given input interval if the query has none.
+     */
+    public long getIntervalMillis(long inputIntervalMillis) {
+        return intervalMillis > 0 ? intervalMillis : inputIntervalMillis;
+    }
+
+    /**
+     * The label configured for the attribute, or the attribute key when the
+     * attribute value is composite. Null if the value is not mapped to a field.
+     */
+    public LabelTemplate getLabel(String attribute, String key) {
+        return labels.get(projectionKey(attribute, key));
+    }
+}
@@ -0,0 +1,295 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.googlecode.jmxtrans.jmx.ResultBatch;
+import com.googlecode.jmxtrans.model.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Singleton;
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Node wide registry of the connections to the monitored servers. Poll tasks of
+ * all inputs polling the same server with the same credentials share one
+ * connection, which is closed when the last of them releases it. The remote
+ * calls of all poll tasks with a deadline run on one shared, bounded thread pool.
+ */
+@Singleton
+public class ConnectionRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionRegistry.class);
+
+    // results older than this are dropped even if no poll task asked for them again
+    private static final long MAX_RESULT_AGE_NANOS = TimeUnit.MINUTES.toNanos(10);
+    // threads running remote calls, calls beyond this wait for a thread until their deadline
+    private static final int CALL_THREADS = 128;
+
+    private final Map<String, SharedConnection> connections = new HashMap<>();
+    // runs the remote calls of the poll tasks, so that a poll can give up on a hanging call
+    private final ExecutorService callExecutor;
+
+    public ConnectionRegistry() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(CALL_THREADS, CALL_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("JMX-Input-call-%d").build());
+        executor.allowCoreThreadTimeOut(true);
+        this.callExecutor = executor;
+    }
+
+    /**
+     * The connection to the server, shared with the other holders. Each call must be
+     * matched by a {@link #release(SharedConnection)}.
+     */
+    synchronized SharedConnection acquire(Server server) {
+        String key = key(server);
+        SharedConnection connection = connections.get(key);
+        if (connection == null) {
+            connection = new SharedConnection(key, server, callExecutor);
+            connections.put(key, connection);
+        }
+        connection.references++;
+        return connection;
+    }
+
+    synchronized void release(SharedConnection connection) {
+        if (--connection.references == 0) {
+            connections.remove(connection.key);
+            connection.close();
+        }
+    }
+
+    private static String key(Server server) {
+        return server.getUrl() + '\0' + server.getUsername() + '\0' + server.getPassword()
+                + '\0' + server.getTrustStorePath() + '\0' + server.getTrustStorePass();
+    }
+
+    /**
+     * A connection opened on first use and reopened after it was invalidated.
+     * While several poll tasks hold it, the complete results of their queries are
+     * kept for a while, so a query polled by several inputs is fetched once.
+     */
+    static class SharedConnection {
+        private final String key;
+        private final Server server;
+        private final ExecutorService callExecutor;
+        // calls given up at their deadline that are still running
+        private final AtomicInteger hangingCalls = new AtomicInteger();
+        // changed while holding the registry lock
+        private volatile int references;
+        private final ConcurrentMap<String, RecentResult> results = new ConcurrentHashMap<>();
+        private volatile JMXConnector connector;
+        private volatile MBeanServerConnection connection;
+        // set once the last holder released the connection
+        private volatile boolean closed;
+
+        private SharedConnection(String key, Server server, ExecutorService callExecutor) {
+            this.key = key;
+            this.server = server;
+            this.callExecutor = callExecutor;
+        }
+
+        /**
+         * The open connection, connecting if there is none.
+         *
+         * @return null if the server can't be connected or the connection was closed
+         */
+        synchronized MBeanServerConnection get() {
+            if (connection == null && !closed) {
+                try {
+                    connector = server.getServerConnection();
+                    connection = connector.getMBeanServerConnection();
+                } catch (Exception e) {
+                    //Cannot create new Connection
+                    LOGGER.error("Cannot create new connection for server" + server, e);
+                    close(connector);
+                    connector = null;
+                }
+                if (closed) {
+                    // released while connecting, close() may have missed the new connector
+                    close();
+                }
+            }
+            return connection;
+        }
+
+        /**
+         * Closes the connection if it is still the given one, so that the next
+         * {@link #get()} reconnects. Holders that found the same connection broken
+         * at the same time close it only once.
+         */
+        void invalidate(MBeanServerConnection broken) {
+            JMXConnector connector;
+            synchronized (this) {
+                if (broken == null || broken != connection) {
+                    return;
+                }
+                connector = this.connector;
+                this.connector = null;
+                this.connection = null;
+            }
+            results.clear();
+            close(connector);
+        }
+
+        /**
+         * Runs a remote call on the connection and waits for it until the deadline. A
+         * remote call can't be interrupted, so a call still running at the deadline is
+         * given up, and no further calls are started on the connection until it has
+         * completed; a hanging server ties up at most one thread of the call executor.
+         * Unless other holders share it, the connection is closed as well so that the
+         * call fails and the next poll starts over with a new one. Closing a shared
+         * connection would abort the calls of the other holders.
+         *
+         * @param deadline {@link System#nanoTime()} to give up at, 0 to run the call on
+         *                 the calling thread without a limit
+         * @throws TimeoutException if the deadline passed or an earlier call is still hanging
+         */
+        <T> T call(Callable<T> callable, long deadline) throws Exception {
+            if (deadline == 0) {
+                return callable.call();
+            }
+            if (hangingCalls.get() > 0) {
+                throw new TimeoutException("An earlier call on " + server + " is still running");
+            }
+            TrackedCall<T> call = new TrackedCall<>(callable);
+            Future<T> future = callExecutor.submit(call);
+            try {
+                return future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                call.giveUp();
+                future.cancel(true);
+                if (!isShared()) {
+                    invalidate(connection);
+                }
+                throw e;
+            } catch (ExecutionException e) {
+                Throwables.propagateIfPossible(e.getCause(), Exception.class);
+                throw e;
+            }
+        }
+
+        boolean isShared() {
+            return references > 1;
+        }
+
+        /**
+         * The result of the query if it was fetched at most maxAgeMillis ago.
+         */
+        ResultBatch recentResult(String queryKey, long maxAgeMillis) {
+            RecentResult result = results.get(queryKey);
+            if (result != null && System.nanoTime() - result.fetchedAt < TimeUnit.MILLISECONDS.toNanos(maxAgeMillis)) {
+                return result.batch;
+            }
+            return null;
+        }
+
+        /**
+         * Keeps the complete result of the query for the other holders. The result
+         * is detached from the series table of the fetching task, whose ids change
+         * meaning when MBeans are removed.
+         */
+        void putResult(String queryKey, ResultBatch batch) {
+            long now = System.nanoTime();
+            results.put(queryKey, new RecentResult(batch.detach(), now));
+            Iterator<RecentResult> iterator = results.values().iterator();
+            while (iterator.hasNext()) {
+                if (now - iterator.next().fetchedAt > MAX_RESULT_AGE_NANOS) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        /**
+         * Closes the connection for good. Doesn't wait for a connect in progress,
+         * which closes its connector itself when it completes.
+         */
+        private void close() {
+            closed = true;
+            JMXConnector connector = this.connector;
+            this.connector = null;
+            this.connection = null;
+            results.clear();
+            close(connector);
+        }
+
+        private void close(JMXConnector connector) {
+            if (connector != null) {
+                try {
+                    connector.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Exception while closing connection to " + server, e);
+                }
+            }
+        }
+
+        /**
+         * A call that counts itself as hanging on its connection from the time it is
+         * given up until it completes. A call given up before it started never runs.
+         */
+        private class TrackedCall<T> implements Callable<T> {
+            private final Callable<T> callable;
+            private boolean started;
+            private boolean done;
+            private boolean givenUp;
+
+            private TrackedCall(Callable<T> callable) {
+                this.callable = callable;
+            }
+
+            @Override
+            public T call() throws Exception {
+                synchronized (this) {
+                    if (givenUp) {
+                        return null;
+                    }
+                    started = true;
+                }
+                try {
+                    return callable.call();
+                } finally {
+                    synchronized (this) {
+                        done = true;
+                        if (givenUp) {
+                            hangingCalls.decrementAndGet();
+                        }
+                    }
+                }
+            }
+
+            synchronized void giveUp() {
+                givenUp = true;
+                if (started && !done) {
+                    hangingCalls.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static class RecentResult {
+        private final ResultBatch batch;
+        private final long fetchedAt;
+
+        private RecentResult(ResultBatch batch, long fetchedAt) {
+            this.batch = batch;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
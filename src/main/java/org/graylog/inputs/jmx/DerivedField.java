@@ -0,0 +1,60 @@
+package org.graylog.inputs.jmx;
+
+import org.graylog.inputs.jmx.model.GLDerivedField;
+
+import java.util.Map;
+
+/**
+ * A derived field with its expression and emit condition compiled, evaluated
+ * on the fields of each message before it is published.
+ */
+class DerivedField {
+
+    private final String label;
+    private final String fieldName;
+    private final FieldExpression.Value expression;
+    private final FieldExpression.Condition emitWhen;
+
+    private DerivedField(String label, FieldExpression.Value expression, FieldExpression.Condition emitWhen) {
+        this.label = label;
+        this.fieldName = "_" + label;
+        this.expression = expression;
+        this.emitWhen = emitWhen;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the label is missing or an expression is malformed
+     */
+    static DerivedField compile(GLDerivedField derived) {
+        if (derived.getLabel() == null || derived.getLabel().isEmpty()) {
+            throw new IllegalArgumentException("Derived field without label");
+        }
+        if (derived.getExpression() == null) {
+            throw new IllegalArgumentException("Derived field " + derived.getLabel() + " without expression");
+        }
+        String emitWhen = derived.getEmitWhen();
+        return new DerivedField(derived.getLabel(), FieldExpression.compileValue(derived.getExpression()),
+                emitWhen == null || emitWhen.trim().isEmpty() ? null : FieldExpression.compileCondition(emitWhen));
+    }
+
+    String getLabel() {
+        return label;
+    }
+
+    /**
+     * Computes the field and adds it to the fields as GELF additional field if the value is a finite
+     * number and the emit condition holds.
+     *
+     * @param previous the values of the previous poll by label, updated with the computed value
+     */
+    void apply(Map<String, Object> fields, Map<String, Double> previous) {
+        double value = expression.evaluate(fields, Double.NaN, Double.NaN);
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        Double last = previous.put(label, value);
+        if (emitWhen == null || emitWhen.test(fields, value, last == null ? Double.NaN : last)) {
+            fields.put(fieldName, value);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.graylog.inputs.jmx;
+
+import javax.management.ObjectName;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How the results of one poll of a server are grouped into messages.
+ */
+enum EmissionMode {
+    /**
+     * One wide message per server and poll.
+     */
+    HOST {
+        @Override
+        String group(CompiledQuery query, ObjectName objectName) {
+            return "";
+        }
+
+        @Override
+        void describe(Map<String, Object> event, String group) {
+        }
+    },
+    /**
+     * One message per query, tagged with the {@link CompiledQuery#getKey() query key} in _jmx_query.
+     */
+    QUERY {
+        @Override
+        String group(CompiledQuery query, ObjectName objectName) {
+            return query.getKey();
+        }
+
+        @Override
+        void describe(Map<String, Object> event, String group) {
+            event.put("_jmx_query", group);
+        }
+    },
+    /**
+     * One message per matched MBean, tagged with its ObjectName in _jmx_object.
+     */
+    OBJECT {
+        @Override
+        String group(CompiledQuery query, ObjectName objectName) {
+            return objectName.getCanonicalName();
+        }
+
+        @Override
+        void describe(Map<String, Object> event, String group) {
+            event.put("_jmx_object", group);
+        }
+    };
+
+    /**
+     * The key of the message the fields of a result of the query on the MBean go to.
+     */
+    abstract String group(CompiledQuery query, ObjectName objectName);
+
+    /**
+     * Adds the fields identifying the group to the message.
+     */
+    abstract void describe(Map<String, Object> event, String group);
+
+    static EmissionMode fromConfig(String value) {
+        return value == null || value.isEmpty() ? HOST : valueOf(value.toUpperCase(Locale.ENGLISH));
+    }
+}
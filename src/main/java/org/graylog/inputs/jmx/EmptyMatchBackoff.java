@@ -0,0 +1,68 @@
+package org.graylog.inputs.jmx;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the queries, by {@link CompiledQuery#getKey() key}, that matched no MBean on one JMX target and
+ * skips them for an exponentially growing period before checking again.
+ * Used only by the poll thread of the target.
+ */
+class EmptyMatchBackoff {
+
+    static final long MAX_BACKOFF_MILLIS = 60 * 60 * 1000L;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    /**
+     * Whether the query should be skipped in the poll at the given time.
+     */
+    boolean skip(String query, long nowMillis) {
+        Entry entry = entries.get(query);
+        return entry != null && nowMillis < entry.nextCheckMillis;
+    }
+
+    /**
+     * Records the number of MBeans the query matched. An empty match doubles the
+     * recheck period, starting at twice the query interval, any match resets it.
+     *
+     * @return the time the query was first seen empty, 0 if it matched
+     */
+    long record(String query, int matchedMBeans, long intervalMillis, long nowMillis) {
+        if (matchedMBeans > 0) {
+            entries.remove(query);
+            return 0;
+        }
+        Entry entry = entries.get(query);
+        if (entry == null) {
+            entry = new Entry(nowMillis);
+            entries.put(query, entry);
+        }
+        long backoffMillis = entry.backoffMillis == 0 ? 2 * intervalMillis : 2 * entry.backoffMillis;
+        entry.backoffMillis = Math.max(intervalMillis, Math.min(MAX_BACKOFF_MILLIS, backoffMillis));
+        entry.nextCheckMillis = nowMillis + entry.backoffMillis;
+        return entry.sinceMillis;
+    }
+
+    long getBackoffMillis(String query) {
+        Entry entry = entries.get(query);
+        return entry == null ? 0 : entry.backoffMillis;
+    }
+
+    /**
+     * Forgets all empty patterns, e.g. after a reconnect to a possibly restarted JVM.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        private final long sinceMillis;
+        private long backoffMillis;
+        private long nextCheckMillis;
+
+        private Entry(long sinceMillis) {
+            this.sinceMillis = sinceMillis;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.graylog.inputs.jmx;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.googlecode.jmxtrans.jmx.ResultBatch;
+import com.googlecode.jmxtrans.jmx.SeriesTable;
+import com.googlecode.jmxtrans.model.Result;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Maps JMXTrans results to the fields of a GELF event as per the compiled queries.
+ */
+public class EventMapper {
+
+    // longest rendering of a double, e.g. -2.2250738585072014E-308
+    private static final int MAX_DOUBLE_LENGTH = 24;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    //process JMXTrans result object as per configured json
+    public void processResult(Map<String, Object> event, CompiledQuery query, ObjectName objectName, Result result) {
+        processResult(event, query, objectName, result, null);
+    }
+
+    /**
+     * Maps the result, fields rendered from label templates are only added if the guard admits them.
+     */
+    void processResult(Map<String, Object> event, CompiledQuery query, ObjectName objectName, Result result,
+                       FieldGuard fieldGuard) {
+        String attrName = result.getAttributeName();
+        for (Map.Entry<String, Object> value : result.getValues().entrySet()) {
+            processValue(event, query, objectName, attrName, value.getKey(), value.getValue(), fieldGuard, null);
+        }
+    }
+
+    /**
+     * Maps all values of the batch, which holds the results of the query.
+     */
+    public void processBatch(Map<String, Object> event, CompiledQuery query, ResultBatch batch) {
+        SeriesTable seriesTable = batch.getSeriesTable();
+        for (int i = 0; i < batch.size(); i++) {
+            int series = batch.getSeries(i);
+            ObjectName objectName = seriesTable.getObjectName(series);
+            if (objectName != null) {
+                processValue(event, query, objectName, seriesTable.getAttributeName(series), seriesTable.getKey(series),
+                        batch.getValue(i), null, null);
+            }
+        }
+    }
+
+    /**
+     * Maps a single value of an attribute, e.g. of a {@link ResultBatch}.
+     *
+     * @param key    the key of the value within the attribute, the attribute name for simple attributes
+     * @param labels cache of the rendered field names, null to render them
+     * @return the estimated payload size of the field, 0 if the value was not mapped
+     */
+    int processValue(Map<String, Object> event, CompiledQuery query, ObjectName objectName, String attrName,
+                     String key, Object value, FieldGuard fieldGuard, LabelCache labels) {
+        LabelTemplate label = attrName.equals(key) ? query.getLabel(attrName, null) : query.getLabel(attrName, key);
+        if (label != null) {
+            String field = labels != null ? labels.fieldName(label, objectName) : label.fieldName(objectName);
+            if (fieldGuard == null || !label.isDynamic() || fieldGuard.admit(query, field)) {
+                event.put(field, value);
+                return estimateSize(field, value);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The size of the field in the json payload, without rendering numbers.
+     */
+    private static int estimateSize(String field, Object value) {
+        // quotes, colon and comma
+        int size = field.length() + 4;
+        if (value instanceof Long || value instanceof Integer) {
+            long number = ((Number) value).longValue();
+            size += number < 0 ? 2 : 1;
+            while ((number /= 10) != 0) {
+                size++;
+            }
+            return size;
+        }
+        if (value instanceof Number) {
+            return size + MAX_DOUBLE_LENGTH;
+        }
+        return size + String.valueOf(value).length() + 2;
+    }
+
+    /**
+     * Serializes the event to the GELF json payload handed over to the input.
+     */
+    public byte[] serialize(Map<String, Object> event) throws IOException {
+        return mapper.writeValueAsBytes(event);
+    }
+
+    //Ignore all chars, except alpha numeric, @_.
+    public static String sanitize(String string) {
+        StringBuilder bldr = new StringBuilder();
+        for (int i = 0; i < string.length(); i++) {
+            if (Character.isAlphabetic(string.codePointAt(i)) ||
+                    Character.isDigit(string.codePointAt(i)) ||
+                    string.charAt(i) == '_' ||
+                    string.charAt(i) == '-' ) {
+                bldr.append(Character.toLowerCase(string.charAt(i)));
+            }
+        }
+        return bldr.toString();
+    }
+}
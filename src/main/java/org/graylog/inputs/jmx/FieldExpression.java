@@ -0,0 +1,495 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the expression of a derived field, or its emit condition, into an
+ * evaluation tree over the fields of a message, e.g.
+ * <pre>
+ *   heap.used / heap.committed * 100
+ *   sum('tomcat.*.busy') / sum('tomcat.*.max')
+ *   value &gt; 90 and not previous &gt; 90
+ * </pre>
+ * Operands are numbers, field names, quoted field names (for names containing
+ * other characters than letters, digits, _ and .) and the aggregates sum, min,
+ * max, avg and count over the fields matching a quoted pattern with the wildcards
+ * * and ?. Field names are labels as in the config; they are resolved against the
+ * GELF additional fields of the message, i.e. with the leading _. Conditions compare such expressions with =, !=, &lt;, &lt;=, &gt; and &gt;=,
+ * combined with and, or, not and parentheses; in conditions value is the computed
+ * value of the field and previous its value of the previous poll.
+ * <p>
+ * A missing or non numeric field makes an expression NaN, and comparisons involving NaN are false.
+ */
+public final class FieldExpression {
+
+    /**
+     * A compiled arithmetic expression.
+     */
+    interface Value {
+        double evaluate(Map<String, Object> fields, double value, double previous);
+    }
+
+    /**
+     * A compiled condition.
+     */
+    interface Condition {
+        boolean test(Map<String, Object> fields, double value, double previous);
+    }
+
+    private static final Set<String> AGGREGATES = ImmutableSet.of("sum", "min", "max", "avg", "count");
+
+    private final String expression;
+    private final List<String> tokens;
+    private int position;
+
+    private FieldExpression(String expression) {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty expression");
+        }
+    }
+
+    static Value compileValue(String expression) {
+        FieldExpression parser = new FieldExpression(expression);
+        Value value = parser.parseSum(false);
+        parser.expectEnd();
+        return value;
+    }
+
+    static Condition compileCondition(String expression) {
+        FieldExpression parser = new FieldExpression(expression);
+        Condition condition = parser.parseOr();
+        parser.expectEnd();
+        return condition;
+    }
+
+    private Condition parseOr() {
+        Condition condition = parseAnd();
+        while (acceptKeyword("or")) {
+            condition = new Or(condition, parseAnd());
+        }
+        return condition;
+    }
+
+    private Condition parseAnd() {
+        Condition condition = parseNot();
+        while (acceptKeyword("and")) {
+            condition = new And(condition, parseNot());
+        }
+        return condition;
+    }
+
+    private Condition parseNot() {
+        if (acceptKeyword("not")) {
+            return new Not(parseNot());
+        }
+        int start = position;
+        if (accept("(")) {
+            // either a parenthesized condition or a comparison starting with a parenthesized value
+            try {
+                Condition condition = parseOr();
+                expect(")");
+                return condition;
+            } catch (IllegalArgumentException e) {
+                position = start;
+            }
+        }
+        return parseComparison();
+    }
+
+    private Condition parseComparison() {
+        Value left = parseSum(true);
+        String operator = next("operator");
+        switch (operator) {
+            case "=":
+            case "!=":
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+                return new Comparison(left, operator, parseSum(true));
+            default:
+                throw error("Unknown operator " + operator);
+        }
+    }
+
+    private Value parseSum(boolean variables) {
+        Value value = parseProduct(variables);
+        while (true) {
+            if (accept("+")) {
+                value = new Arithmetic(value, '+', parseProduct(variables));
+            } else if (accept("-")) {
+                value = new Arithmetic(value, '-', parseProduct(variables));
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Value parseProduct(boolean variables) {
+        Value value = parseUnary(variables);
+        while (true) {
+            if (accept("*")) {
+                value = new Arithmetic(value, '*', parseUnary(variables));
+            } else if (accept("/")) {
+                value = new Arithmetic(value, '/', parseUnary(variables));
+            } else {
+                return value;
+            }
+        }
+    }
+
+    private Value parseUnary(boolean variables) {
+        if (accept("-")) {
+            return new Arithmetic(new Constant(0), '-', parseUnary(variables));
+        }
+        if (accept("(")) {
+            Value value = parseSum(variables);
+            expect(")");
+            return value;
+        }
+        String token = next("operand");
+        if (isQuoted(token)) {
+            return new Field(unquote(token));
+        }
+        if (Character.isDigit(token.charAt(0))) {
+            try {
+                return new Constant(Double.parseDouble(token));
+            } catch (NumberFormatException e) {
+                throw error("Invalid number " + token);
+            }
+        }
+        if (accept("(")) {
+            String function = token.toLowerCase(Locale.ENGLISH);
+            if (!AGGREGATES.contains(function)) {
+                throw error("Unknown function " + token);
+            }
+            String pattern = next("field pattern");
+            if (!isQuoted(pattern)) {
+                throw error(token + " requires a quoted field pattern");
+            }
+            expect(")");
+            return new Aggregate(function, glob("_" + unquote(pattern)));
+        }
+        if (variables && "value".equals(token)) {
+            return new Variable(true);
+        }
+        if (variables && "previous".equals(token)) {
+            return new Variable(false);
+        }
+        if (!Character.isLetter(token.charAt(0)) && token.charAt(0) != '_') {
+            throw error("Unexpected '" + token + "'");
+        }
+        return new Field(token);
+    }
+
+    private static Pattern glob(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (String literal : pattern.split("((?<=[*?])|(?=[*?]))")) {
+            if ("*".equals(literal)) {
+                regex.append(".*");
+            } else if ("?".equals(literal)) {
+                regex.append('.');
+            } else if (!literal.isEmpty()) {
+                regex.append(Pattern.quote(literal));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static boolean isQuoted(String token) {
+        return token.charAt(0) == '\'' || token.charAt(0) == '"';
+    }
+
+    private static String unquote(String token) {
+        return token.substring(1, token.length() - 1);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (position < tokens.size() && keyword.equalsIgnoreCase(tokens.get(position))) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(String token) {
+        if (position < tokens.size() && token.equals(tokens.get(position))) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error("Expected '" + token + "'");
+        }
+    }
+
+    private void expectEnd() {
+        if (position < tokens.size()) {
+            throw error("Unexpected '" + tokens.get(position) + "'");
+        }
+    }
+
+    private String next(String expected) {
+        if (position >= tokens.size()) {
+            throw error("Expected " + expected + " at end of expression");
+        }
+        return tokens.get(position++);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " in expression " + expression);
+    }
+
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if ("()+-*/".indexOf(c) >= 0) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int close = expression.indexOf(c, i + 1);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unterminated string in expression " + expression);
+                }
+                tokens.add(expression.substring(i, close + 1));
+                i = close + 1;
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                int end = i + 1;
+                if (end < expression.length() && expression.charAt(end) == '=') {
+                    end++;
+                }
+                String operator = expression.substring(i, end);
+                if ("!".equals(operator)) {
+                    throw new IllegalArgumentException("Invalid operator ! in expression " + expression);
+                }
+                tokens.add(operator);
+                i = end;
+            } else {
+                int end = i;
+                while (end < expression.length() && isWordChar(expression.charAt(end))) {
+                    end++;
+                }
+                if (end == i) {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in expression " + expression);
+                }
+                tokens.add(expression.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    private static double number(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    private static class Constant implements Value {
+        private final double constant;
+
+        private Constant(double constant) {
+            this.constant = constant;
+        }
+
+        @Override
+        public double evaluate(Map<String, Object> fields, double value, double previous) {
+            return constant;
+        }
+    }
+
+    private static class Field implements Value {
+        private final String fieldName;
+
+        private Field(String label) {
+            this.fieldName = "_" + label;
+        }
+
+        @Override
+        public double evaluate(Map<String, Object> fields, double value, double previous) {
+            return number(fields.get(fieldName));
+        }
+    }
+
+    private static class Variable implements Value {
+        private final boolean current;
+
+        private Variable(boolean current) {
+            this.current = current;
+        }
+
+        @Override
+        public double evaluate(Map<String, Object> fields, double value, double previous) {
+            return current ? value : previous;
+        }
+    }
+
+    private static class Arithmetic implements Value {
+        private final Value left;
+        private final char operator;
+        private final Value right;
+
+        private Arithmetic(Value left, char operator, Value right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public double evaluate(Map<String, Object> fields, double value, double previous) {
+            double a = left.evaluate(fields, value, previous);
+            double b = right.evaluate(fields, value, previous);
+            switch (operator) {
+                case '+':
+                    return a + b;
+                case '-':
+                    return a - b;
+                case '*':
+                    return a * b;
+                default:
+                    return a / b;
+            }
+        }
+    }
+
+    private static class Aggregate implements Value {
+        private final String function;
+        private final Pattern pattern;
+
+        private Aggregate(String function, Pattern pattern) {
+            this.function = function;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public double evaluate(Map<String, Object> fields, double value, double previous) {
+            double sum = 0;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            int count = 0;
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                double number = number(field.getValue());
+                if (!Double.isNaN(number) && pattern.matcher(field.getKey()).matches()) {
+                    sum += number;
+                    min = Math.min(min, number);
+                    max = Math.max(max, number);
+                    count++;
+                }
+            }
+            switch (function) {
+                case "count":
+                    return count;
+                case "sum":
+                    return count == 0 ? Double.NaN : sum;
+                case "min":
+                    return count == 0 ? Double.NaN : min;
+                case "max":
+                    return count == 0 ? Double.NaN : max;
+                default:
+                    return count == 0 ? Double.NaN : sum / count;
+            }
+        }
+    }
+
+    private static class Comparison implements Condition {
+        private final Value left;
+        private final String operator;
+        private final Value right;
+
+        private Comparison(Value left, String operator, Value right) {
+            this.left = left;
+            this.operator = operator;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> fields, double value, double previous) {
+            double a = left.evaluate(fields, value, previous);
+            double b = right.evaluate(fields, value, previous);
+            if (Double.isNaN(a) || Double.isNaN(b)) {
+                return false;
+            }
+            switch (operator) {
+                case "=":
+                    return a == b;
+                case "!=":
+                    return a != b;
+                case "<":
+                    return a < b;
+                case "<=":
+                    return a <= b;
+                case ">":
+                    return a > b;
+                default:
+                    return a >= b;
+            }
+        }
+    }
+
+    private static class And implements Condition {
+        private final Condition left;
+        private final Condition right;
+
+        private And(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> fields, double value, double previous) {
+            return left.test(fields, value, previous) && right.test(fields, value, previous);
+        }
+    }
+
+    private static class Or implements Condition {
+        private final Condition left;
+        private final Condition right;
+
+        private Or(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> fields, double value, double previous) {
+            return left.test(fields, value, previous) || right.test(fields, value, previous);
+        }
+    }
+
+    private static class Not implements Condition {
+        private final Condition condition;
+
+        private Not(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public boolean test(Map<String, Object> fields, double value, double previous) {
+            return !condition.test(fields, value, previous);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounds the number of distinct field names an input creates from label
+ * templates, per query and for the whole input, so that targets registering
+ * MBeans dynamically cannot blow up the index mappings. Field names are kept in
+ * least recently seen order. A new name over the limit only replaces the least
+ * recently seen one if that has not been seen for {@link #RETENTION_POLLS} polls
+ * of its query, otherwise the new field is dropped. Shared by all poll tasks of
+ * an input.
+ */
+class FieldGuard {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FieldGuard.class);
+
+    static final int RETENTION_POLLS = 10;
+
+    private final int maxFields;
+    private final long inputIntervalMillis;
+    private final Counter dropped;
+    private final LinkedHashMap<String, Entry> fields = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, LinkedHashMap<String, Entry>> queryFields = new HashMap<>();
+    private final Set<String> warnedQueries = new HashSet<>();
+
+    /**
+     * @param maxFields maximum number of field names of the input, 0 for no limit
+     */
+    FieldGuard(int maxFields, long inputIntervalMillis, Counter dropped) {
+        this.maxFields = maxFields;
+        this.inputIntervalMillis = inputIntervalMillis;
+        this.dropped = dropped;
+    }
+
+    /**
+     * Whether the rendered field of the query may be added to the event.
+     */
+    synchronized boolean admit(CompiledQuery query, String field) {
+        long now = System.currentTimeMillis();
+        LinkedHashMap<String, Entry> ofQuery = queryFields.get(query.getKey());
+        if (ofQuery == null) {
+            ofQuery = new LinkedHashMap<>(16, 0.75f, true);
+            queryFields.put(query.getKey(), ofQuery);
+        }
+        Entry entry = ofQuery.get(field);
+        if (entry != null) {
+            entry.lastSeen = now;
+            // touch the field in the input wide order as well
+            fields.get(field);
+            return true;
+        }
+
+        // both limits are checked before evicting, so no field is evicted for a field that is dropped anyway
+        boolean queryFull = query.getMaxFields() > 0 && ofQuery.size() >= query.getMaxFields();
+        boolean inputFull = !fields.containsKey(field) && maxFields > 0 && fields.size() >= maxFields;
+        Map.Entry<String, Entry> queryEldest = queryFull ? eldest(ofQuery) : null;
+        if (queryEldest != null && inputFull && queryEldest.getValue().queries.size() == 1) {
+            // evicting the field from its only query makes room in the input as well
+            inputFull = false;
+        }
+        if ((queryFull && !isStale(queryEldest, now)) || (inputFull && !isStale(eldest(fields), now))) {
+            dropped.inc();
+            if (warnedQueries.add(query.getKey())) {
+                LOGGER.warn("Too many distinct fields for query {}, dropping field {}", query.getKey(), field);
+            }
+            return false;
+        }
+        if (queryFull) {
+            evictEldest(ofQuery, query.getKey());
+        }
+        if (inputFull) {
+            evictEldest(fields, null);
+        }
+
+        entry = fields.get(field);
+        if (entry == null) {
+            entry = new Entry(RETENTION_POLLS * query.getIntervalMillis(inputIntervalMillis));
+            fields.put(field, entry);
+        }
+        entry.lastSeen = now;
+        entry.queries.add(query.getKey());
+        ofQuery.put(field, entry);
+        return true;
+    }
+
+    /**
+     * Drops the fields of the queries that are no longer part of the plan, e.g.
+     * after a config reload. Fields no remaining query has are dropped from the input.
+     */
+    synchronized void retainQueries(QueryPlan plan) {
+        Set<String> keys = new HashSet<>();
+        for (CompiledQuery query : plan.getQueries()) {
+            keys.add(query.getKey());
+        }
+        Iterator<Map.Entry<String, LinkedHashMap<String, Entry>>> it = queryFields.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, LinkedHashMap<String, Entry>> ofQuery = it.next();
+            if (keys.contains(ofQuery.getKey())) {
+                continue;
+            }
+            it.remove();
+            for (Map.Entry<String, Entry> field : ofQuery.getValue().entrySet()) {
+                field.getValue().queries.remove(ofQuery.getKey());
+                if (field.getValue().queries.isEmpty()) {
+                    fields.remove(field.getKey());
+                }
+            }
+        }
+        warnedQueries.retainAll(keys);
+    }
+
+    private static Map.Entry<String, Entry> eldest(LinkedHashMap<String, Entry> candidates) {
+        Iterator<Map.Entry<String, Entry>> it = candidates.entrySet().iterator();
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private static boolean isStale(Map.Entry<String, Entry> field, long now) {
+        return field != null && now - field.getValue().lastSeen > field.getValue().retentionMillis;
+    }
+
+    /**
+     * Evicts the least recently seen field of the candidates. A field evicted from
+     * the fields of a query stays a field of the input while other queries still
+     * have it; a field evicted from the input is taken from all queries.
+     *
+     * @param query the key of the query the candidates belong to, null for the fields of the input
+     */
+    private void evictEldest(LinkedHashMap<String, Entry> candidates, String query) {
+        Iterator<Map.Entry<String, Entry>> it = candidates.entrySet().iterator();
+        Map.Entry<String, Entry> eldest = it.next();
+        String field = eldest.getKey();
+        Entry entry = eldest.getValue();
+        it.remove();
+        if (query != null) {
+            entry.queries.remove(query);
+            if (entry.queries.isEmpty()) {
+                fields.remove(field);
+            }
+        } else {
+            for (String holder : entry.queries) {
+                LinkedHashMap<String, Entry> ofQuery = queryFields.get(holder);
+                if (ofQuery != null) {
+                    ofQuery.remove(field);
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+        // keys of the queries having the field
+        private final Set<String> queries = new HashSet<>(2);
+        private final long retentionMillis;
+        private long lastSeen;
+
+        private Entry(long retentionMillis) {
+            this.retentionMillis = retentionMillis;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Assigns servers to the nodes running a global input by rendezvous (highest
+ * random weight) hashing: every node ranks a server by hash(node, server) and
+ * the highest ranked node polls it. All nodes agree without coordination, and
+ * adding or removing a node only moves the servers won or lost by that node.
+ */
+public class HostSharding {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String localNode;
+    private final ImmutableSet<String> nodes;
+
+    public HostSharding(String localNode, Collection<String> nodes) {
+        if (!nodes.contains(localNode)) {
+            throw new IllegalArgumentException("Node " + localNode + " is not one of the shard nodes " + nodes);
+        }
+        this.localNode = localNode;
+        this.nodes = ImmutableSet.copyOf(nodes);
+    }
+
+    public boolean isLocal(String server) {
+        return localNode.equals(owner(server));
+    }
+
+    public String owner(String server) {
+        String owner = null;
+        long highest = Long.MIN_VALUE;
+        for (String node : nodes) {
+            long weight = HASH.newHasher()
+                    .putString(node, StandardCharsets.UTF_8)
+                    .putByte((byte) 0)
+                    .putString(server, StandardCharsets.UTF_8)
+                    .hash().asLong();
+            // ties are practically impossible, but must be broken the same way on every node
+            if (owner == null || weight > highest || (weight == highest && node.compareTo(owner) < 0)) {
+                owner = node;
+                highest = weight;
+            }
+        }
+        return owner;
+    }
+}
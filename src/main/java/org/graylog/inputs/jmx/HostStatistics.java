@@ -0,0 +1,164 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live statistics of one JMX target polled by one input. Updated only by the
+ * poll thread of the target, read by the diagnostics resource.
+ */
+@JsonPropertyOrder(value = {"inputId", "host", "url", "lastLatencyMillis", "p99LatencyMillis", "matchedMBeans",
+        "payloadBytes", "errorStreak", "lastError", "lastPoll", "partialPolls", "nextRunMillis", "queries"})
+public class HostStatistics {
+
+    static final int LATENCY_WINDOW = 128;
+
+    private final String inputId;
+    private final String host;
+    private final String url;
+    private final Histogram latency = new Histogram(new SlidingWindowReservoir(LATENCY_WINDOW));
+    private final ConcurrentMap<String, QueryStatistics> queries = new ConcurrentHashMap<>();
+    private volatile long lastLatencyMillis = -1;
+    private volatile int matchedMBeans;
+    private volatile int payloadBytes;
+    private volatile int errorStreak;
+    private volatile String lastError;
+    private volatile long lastPoll;
+    private volatile long partialPolls;
+    private volatile ScheduledFuture<?> schedule;
+
+    public HostStatistics(String inputId, String host, String url) {
+        this.inputId = inputId;
+        this.host = host;
+        this.url = url;
+    }
+
+    void setSchedule(ScheduledFuture<?> schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * @param query the {@link CompiledQuery#getKey() key} of the query
+     */
+    QueryStatistics query(String query) {
+        QueryStatistics statistics = queries.get(query);
+        if (statistics == null) {
+            QueryStatistics created = new QueryStatistics(inputId, host, url, query);
+            statistics = queries.putIfAbsent(query, created);
+            if (statistics == null) {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+
+    void recordSuccess(long latencyMillis, int matchedMBeans, int payloadBytes, boolean partial) {
+        this.latency.update(latencyMillis);
+        this.lastLatencyMillis = latencyMillis;
+        this.matchedMBeans = matchedMBeans;
+        this.payloadBytes = payloadBytes;
+        this.errorStreak = 0;
+        this.lastPoll = System.currentTimeMillis();
+        if (partial) {
+            this.partialPolls++;
+        }
+    }
+
+    void recordFailure(long latencyMillis, String error) {
+        this.latency.update(latencyMillis);
+        this.lastLatencyMillis = latencyMillis;
+        this.errorStreak++;
+        this.lastError = error;
+        this.lastPoll = System.currentTimeMillis();
+    }
+
+    @JsonProperty
+    public String getInputId() {
+        return inputId;
+    }
+
+    @JsonProperty
+    public String getHost() {
+        return host;
+    }
+
+    @JsonProperty
+    public String getUrl() {
+        return url;
+    }
+
+    @JsonProperty
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    @JsonProperty
+    public double getP99LatencyMillis() {
+        return latency.getSnapshot().get99thPercentile();
+    }
+
+    @JsonProperty
+    public int getMatchedMBeans() {
+        return matchedMBeans;
+    }
+
+    @JsonProperty
+    public int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    @JsonProperty
+    public int getErrorStreak() {
+        return errorStreak;
+    }
+
+    @JsonProperty
+    public String getLastError() {
+        return lastError;
+    }
+
+    @JsonProperty
+    public long getLastPoll() {
+        return lastPoll;
+    }
+
+    /**
+     * Number of polls that hit the poll deadline and published partial results.
+     */
+    @JsonProperty
+    public long getPartialPolls() {
+        return partialPolls;
+    }
+
+    /**
+     * Milliseconds until the next scheduled poll, -1 if the target is not scheduled.
+     */
+    @JsonProperty
+    public long getNextRunMillis() {
+        ScheduledFuture<?> future = schedule;
+        if (future == null || future.isDone()) {
+            return -1;
+        }
+        return Math.max(0, future.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @JsonProperty
+    public List<QueryStatistics> getQueries() {
+        return new ArrayList<>(queries.values());
+    }
+
+    @JsonIgnore
+    Iterable<QueryStatistics> queryStatistics() {
+        return queries.values();
+    }
+}
@@ -0,0 +1,86 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.Ordering;
+
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node wide registry of the live poll statistics of all running JMX inputs.
+ */
+@Singleton
+public class JMXDiagnostics {
+
+    /**
+     * Selects the inputs whose statistics are listed.
+     */
+    public interface InputFilter {
+        boolean isVisible(String inputId);
+    }
+
+    public static final InputFilter ALL_INPUTS = new InputFilter() {
+        @Override
+        public boolean isVisible(String inputId) {
+            return true;
+        }
+    };
+
+    private final ConcurrentMap<String, HostStatistics> hosts = new ConcurrentHashMap<>();
+
+    public HostStatistics register(String inputId, String host, String url) {
+        HostStatistics statistics = new HostStatistics(inputId, host, url);
+        hosts.put(key(inputId, url), statistics);
+        return statistics;
+    }
+
+    public void unregister(String inputId, String url) {
+        hosts.remove(key(inputId, url));
+    }
+
+    /**
+     * @param visible the inputs whose targets may be listed
+     */
+    public List<HostStatistics> topHosts(Comparator<HostStatistics> order, int limit, InputFilter visible) {
+        return Ordering.from(order).greatestOf(visibleHosts(visible), limit);
+    }
+
+    public List<QueryStatistics> topQueries(Comparator<QueryStatistics> order, int limit, InputFilter visible) {
+        List<QueryStatistics> queries = new ArrayList<>();
+        for (HostStatistics host : visibleHosts(visible)) {
+            for (QueryStatistics query : host.queryStatistics()) {
+                queries.add(query);
+            }
+        }
+        return Ordering.from(order).greatestOf(queries, limit);
+    }
+
+    public List<QueryStatistics> emptyQueries(InputFilter visible) {
+        List<QueryStatistics> queries = new ArrayList<>();
+        for (HostStatistics host : visibleHosts(visible)) {
+            for (QueryStatistics query : host.queryStatistics()) {
+                if (query.getEmptySince() > 0) {
+                    queries.add(query);
+                }
+            }
+        }
+        return queries;
+    }
+
+    private List<HostStatistics> visibleHosts(InputFilter visible) {
+        List<HostStatistics> visibleHosts = new ArrayList<>();
+        for (HostStatistics host : hosts.values()) {
+            if (visible.isVisible(host.getInputId())) {
+                visibleHosts.add(host);
+            }
+        }
+        return visibleHosts;
+    }
+
+    private static String key(String inputId, String url) {
+        return inputId + "|" + url;
+    }
+}
@@ -0,0 +1,170 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.apache.shiro.subject.Subject;
+import org.graylog2.plugin.rest.PluginRestResource;
+
+import javax.inject.Inject;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Exposes the slowest JMX targets and queries of this node, e.g.
+ * GET /plugins/org.graylog.inputs.jmx.JMXInputPlugin/diagnostics/hosts?sort=errors&limit=10
+ * <p>
+ * Requires the permission to read inputs; only the targets of the inputs the user may read are listed.
+ */
+@RequiresAuthentication
+@RequiresPermissions(JMXDiagnosticsResource.INPUTS_READ)
+@Path("/diagnostics")
+@Produces(MediaType.APPLICATION_JSON)
+public class JMXDiagnosticsResource implements PluginRestResource {
+
+    static final String INPUTS_READ = "inputs:read";
+
+    private final JMXDiagnostics diagnostics;
+
+    @Inject
+    public JMXDiagnosticsResource(JMXDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    /**
+     * Targets ordered by p99 latency (default), last latency, matched MBean count,
+     * payload size or error streak.
+     */
+    @GET
+    @Path("/hosts")
+    public List<HostStatistics> hosts(@QueryParam("sort") @DefaultValue("p99") String sort,
+                                      @QueryParam("limit") @DefaultValue("20") int limit) {
+        return diagnostics.topHosts(hostOrder(sort), checkLimit(limit), readableInputs());
+    }
+
+    /**
+     * Queries of all targets ordered by p99 latency (default), last latency, matched MBean count,
+     * payload size or error streak.
+     */
+    @GET
+    @Path("/queries")
+    public List<QueryStatistics> queries(@QueryParam("sort") @DefaultValue("p99") String sort,
+                                         @QueryParam("limit") @DefaultValue("20") int limit) {
+        return diagnostics.topQueries(queryOrder(sort), checkLimit(limit), readableInputs());
+    }
+
+    /**
+     * Queries that currently match no MBean on their target and are only rechecked with backoff.
+     */
+    @GET
+    @Path("/empty")
+    public List<QueryStatistics> emptyQueries() {
+        return diagnostics.emptyQueries(readableInputs());
+    }
+
+    private static int checkLimit(int limit) {
+        if (limit < 0) {
+            throw new BadRequestException("limit must not be negative");
+        }
+        return limit;
+    }
+
+    private static JMXDiagnostics.InputFilter readableInputs() {
+        final Subject subject = SecurityUtils.getSubject();
+        return new JMXDiagnostics.InputFilter() {
+            @Override
+            public boolean isVisible(String inputId) {
+                return subject.isPermitted(INPUTS_READ + ":" + inputId);
+            }
+        };
+    }
+
+    private static Comparator<HostStatistics> hostOrder(String sort) {
+        switch (sort) {
+            case "last":
+                return new Comparator<HostStatistics>() {
+                    @Override
+                    public int compare(HostStatistics o1, HostStatistics o2) {
+                        return Longs.compare(o1.getLastLatencyMillis(), o2.getLastLatencyMillis());
+                    }
+                };
+            case "mbeans":
+                return new Comparator<HostStatistics>() {
+                    @Override
+                    public int compare(HostStatistics o1, HostStatistics o2) {
+                        return Integer.compare(o1.getMatchedMBeans(), o2.getMatchedMBeans());
+                    }
+                };
+            case "payload":
+                return new Comparator<HostStatistics>() {
+                    @Override
+                    public int compare(HostStatistics o1, HostStatistics o2) {
+                        return Integer.compare(o1.getPayloadBytes(), o2.getPayloadBytes());
+                    }
+                };
+            case "errors":
+                return new Comparator<HostStatistics>() {
+                    @Override
+                    public int compare(HostStatistics o1, HostStatistics o2) {
+                        return Integer.compare(o1.getErrorStreak(), o2.getErrorStreak());
+                    }
+                };
+            default:
+                return new Comparator<HostStatistics>() {
+                    @Override
+                    public int compare(HostStatistics o1, HostStatistics o2) {
+                        return Doubles.compare(o1.getP99LatencyMillis(), o2.getP99LatencyMillis());
+                    }
+                };
+        }
+    }
+
+    private static Comparator<QueryStatistics> queryOrder(String sort) {
+        switch (sort) {
+            case "last":
+                return new Comparator<QueryStatistics>() {
+                    @Override
+                    public int compare(QueryStatistics o1, QueryStatistics o2) {
+                        return Longs.compare(o1.getLastLatencyMillis(), o2.getLastLatencyMillis());
+                    }
+                };
+            case "mbeans":
+                return new Comparator<QueryStatistics>() {
+                    @Override
+                    public int compare(QueryStatistics o1, QueryStatistics o2) {
+                        return Integer.compare(o1.getMatchedMBeans(), o2.getMatchedMBeans());
+                    }
+                };
+            case "payload":
+                return new Comparator<QueryStatistics>() {
+                    @Override
+                    public int compare(QueryStatistics o1, QueryStatistics o2) {
+                        return Integer.compare(o1.getPayloadBytes(), o2.getPayloadBytes());
+                    }
+                };
+            case "errors":
+                return new Comparator<QueryStatistics>() {
+                    @Override
+                    public int compare(QueryStatistics o1, QueryStatistics o2) {
+                        return Integer.compare(o1.getErrorStreak(), o2.getErrorStreak());
+                    }
+                };
+            default:
+                return new Comparator<QueryStatistics>() {
+                    @Override
+                    public int compare(QueryStatistics o1, QueryStatistics o2) {
+                        return Doubles.compare(o1.getP99LatencyMillis(), o2.getP99LatencyMillis());
+                    }
+                };
+        }
+    }
+}
@@ -24,5 +24,6 @@ public class JMXInputPluginModule extends PluginModule {
     protected void configure() {
         installTransport(transportMapBinder(),"jmx-input-transport",JMXTransport.class);
         installInput(inputsMapBinder(), JMXInput.class, JMXInput.Factory.class);
+        addRestResource(JMXDiagnosticsResource.class);
     }
 }
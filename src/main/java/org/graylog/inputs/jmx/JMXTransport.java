@@ -1,22 +1,21 @@
 package org.graylog.inputs.jmx;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Maps;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.assistedinject.Assisted;
 import com.google.inject.assistedinject.AssistedInject;
-import com.googlecode.jmxtrans.jmx.JmxQueryProcessor;
-import com.googlecode.jmxtrans.model.Query;
-import com.googlecode.jmxtrans.model.Result;
 import com.googlecode.jmxtrans.model.Server;
-import org.graylog.inputs.jmx.model.GLAttribute;
-import org.graylog.inputs.jmx.model.GLQuery;
 import org.graylog.inputs.jmx.model.GLQueryConfig;
 import org.graylog2.plugin.ServerStatus;
 import org.graylog2.plugin.configuration.Configuration;
 import org.graylog2.plugin.configuration.ConfigurationRequest;
+import org.graylog2.plugin.configuration.fields.BooleanField;
 import org.graylog2.plugin.configuration.fields.ConfigurationField;
 import org.graylog2.plugin.configuration.fields.DropdownField;
 import org.graylog2.plugin.configuration.fields.NumberField;
@@ -27,20 +26,26 @@ import org.graylog2.plugin.inputs.annotations.ConfigClass;
 import org.graylog2.plugin.inputs.annotations.FactoryClass;
 import org.graylog2.plugin.inputs.codecs.CodecAggregator;
 import org.graylog2.plugin.inputs.transports.Transport;
-import org.graylog2.plugin.journal.RawMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.MBeanServerConnection;
-import javax.management.ObjectName;
-import java.io.ByteArrayOutputStream;
+import javax.management.remote.JMXServiceURL;
 import java.io.File;
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created on 2/9/15.
@@ -51,17 +56,43 @@ public class JMXTransport implements Transport {
             .class.getName());
     private final Configuration configuration;
     private final MetricRegistry metricRegistry;
+    private final JMXDiagnostics diagnostics;
+    private final ConnectionRegistry connections;
     private ServerStatus serverStatus;
-    private List<Server> servers;
-    private GLQueryConfig queryConfig;
-    private ScheduledExecutorService executorService;
+    private String inputId;
+    private MessagePublisher publisher;
+    private List<Server> configuredServers;
+    private final Map<String, PollTask> pollTasks = new LinkedHashMap<>();
+    private final AtomicReference<QueryPlan> queryPlan = new AtomicReference<>();
+    // built-in profile names and absolute paths of custom profiles, merged into one plan
+    private List<String> profiles;
+    private final Map<File, Long> configFilesLastModified = new LinkedHashMap<>();
+    private File inventoryFile;
+    private long inventoryLastModified;
+    private ScheduledThreadPoolExecutor executorService;
     private List<ScheduledFuture> futures;
-    private int executionInterval;
-    private TimeUnit getExecutionIntervalTimeUnit;
+    private long executionIntervalMillis;
     private String label;
-    private Hashtable<String, MBeanServerConnection> connections;
+    private HostSharding sharding;
+    private FieldGuard fieldGuard;
+    private EmissionMode emissionMode;
+    private int maxMessageBytes;
+    private long pollTimeoutMillis;
+    private final Counter droppedFields = new Counter();
+    private final Counter shedMessages = new Counter();
+    private final Counter shedBytes = new Counter();
+    private final Counter shedQueries = new Counter();
+    private final Counter shedDerivedFields = new Counter();
+    private final Counter spoolDropped = new Counter();
+    private PublishThrottle throttle;
+    private MBeanCache mbeanCache;
+    // inventories of the previous run by server URL, taken by the tasks of the servers as they start
+    private Map<String, Map<String, Map<String, String>>> cachedInventories = new HashMap<>();
+
+    private static final String JMX_URL_PREFIX = "service:jmx:";
 
     private static final String CK_CONFIG_HOSTS = "configHosts";
+    private static final String CK_CONFIG_INVENTORY_FILE_PATH = "configInventoryFilePath";
     private static final String CK_CONFIG_LABEL = "configLabel";
     private static final String CK_CONFIG_PORT = "configPort";
     private static final String CK_CONFIG_USER_NAME = "configUsername";
@@ -70,17 +101,46 @@ public class JMXTransport implements Transport {
     private static final String CK_CONFIG_INTERVAL_UNIT = "configIntervalUnit";
     private static final String CK_CONFIG_TYPE = "configType";
     private static final String CK_CONFIG_CUSTOM_FILE_PATH = "configCustomFilePath";
+    private static final String CK_CONFIG_ADDITIONAL_PROFILES = "configAdditionalProfiles";
     private static final String CK_CONFIG_TRUSTSTORE_PATH = "configTruststorePath";
     private static final String CK_CONFIG_TRUSTSTORE_PASS = "configTruststorePass";
+    private static final String CK_CONFIG_SHARDING = "configSharding";
+    private static final String CK_CONFIG_SHARD_NODES = "configShardNodes";
+    private static final String CK_CONFIG_MAX_FIELDS = "configMaxFields";
+    private static final String CK_CONFIG_EMISSION_MODE = "configEmissionMode";
+    private static final String CK_CONFIG_MAX_MESSAGE_BYTES = "configMaxMessageBytes";
+    private static final String CK_CONFIG_POLL_TIMEOUT = "configPollTimeout";
+    private static final String CK_CONFIG_MAX_MESSAGE_RATE = "configMaxMessageRate";
+    private static final String CK_CONFIG_MAX_BYTE_RATE = "configMaxByteRate";
+    private static final String CK_CONFIG_SPOOL_PATH = "configSpoolPath";
+    private static final String CK_CONFIG_SPOOL_SIZE = "configSpoolSize";
+    private static final String CK_CONFIG_MBEAN_CACHE_PATH = "configMBeanCachePath";
+
+    private static final long CONFIG_RELOAD_CHECK_SECONDS = 10;
+    // threads for the config and inventory reload checks
+    private static final int BACKGROUND_THREADS = 1;
+    private static final int DEFAULT_MAX_FIELDS = 1000;
+    private static final int DEFAULT_MAX_MESSAGE_BYTES = 128 * 1024;
+    private static final int DEFAULT_SPOOL_SIZE_MB = 64;
+    // servers with a cached inventory or an open connection start polling within this delay instead of the random one
+    private static final long WARM_START_DELAY_SECONDS = 5;
+    private static final long COLD_START_DELAY_SECONDS = 60;
+    // servers connected in parallel before their tasks are started, and how long to wait for all of them
+    private static final int CONNECT_THREADS = 16;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
 
 
     @AssistedInject
     public JMXTransport(@Assisted Configuration configuration,
                         MetricRegistry metricRegistry,
-                        ServerStatus serverStatus) {
+                        ServerStatus serverStatus,
+                        JMXDiagnostics diagnostics,
+                        ConnectionRegistry connections) {
         this.configuration = configuration;
         this.metricRegistry = metricRegistry;
         this.serverStatus = serverStatus;
+        this.diagnostics = diagnostics;
+        this.connections = connections;
     }
 
     @Override
@@ -91,270 +151,577 @@ public class JMXTransport implements Transport {
     @Override
     public void launch(MessageInput messageInput) throws MisfireException {
 
-        this.executionInterval = configuration.getInt(CK_CONFIG_INTERVAL);
-        this.getExecutionIntervalTimeUnit = TimeUnit.valueOf(configuration.getString(CK_CONFIG_INTERVAL_UNIT));
+        this.executionIntervalMillis = TimeUnit.MILLISECONDS.convert(configuration.getInt(CK_CONFIG_INTERVAL),
+                TimeUnit.valueOf(configuration.getString(CK_CONFIG_INTERVAL_UNIT)));
         this.label = configuration.getString(CK_CONFIG_LABEL);
-        String hosts[] = configuration.getString(CK_CONFIG_HOSTS).split(",");
+        this.inputId = messageInput.getId();
+        this.fieldGuard = new FieldGuard(configuration.getInt(CK_CONFIG_MAX_FIELDS, DEFAULT_MAX_FIELDS),
+                executionIntervalMillis, droppedFields);
+        try {
+            this.emissionMode = EmissionMode.fromConfig(configuration.getString(CK_CONFIG_EMISSION_MODE));
+        } catch (IllegalArgumentException e) {
+            throw new MisfireException("Unknown emission mode " + configuration.getString(CK_CONFIG_EMISSION_MODE));
+        }
+        this.maxMessageBytes = configuration.getInt(CK_CONFIG_MAX_MESSAGE_BYTES, DEFAULT_MAX_MESSAGE_BYTES);
+        this.pollTimeoutMillis = TimeUnit.SECONDS.toMillis(configuration.getInt(CK_CONFIG_POLL_TIMEOUT, 0));
+        this.throttle = new PublishThrottle(configuration.getInt(CK_CONFIG_MAX_MESSAGE_RATE, 0),
+                configuration.getInt(CK_CONFIG_MAX_BYTE_RATE, 0), executionIntervalMillis,
+                shedMessages, shedBytes, shedQueries, shedDerivedFields);
+
+        configuredServers = new ArrayList<>();
+        String hosts = configuration.getString(CK_CONFIG_HOSTS);
+        if (hosts != null) {
+            for (String host : hosts.split(",")) {
+                if (!host.trim().isEmpty()) {
+                    try {
+                        configuredServers.add(parseServer(host.trim(), null, null));
+                    } catch (IllegalArgumentException e) {
+                        throw new MisfireException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
 
-        servers = new ArrayList<>(hosts.length);
+        String inventoryFilePath = configuration.getString(CK_CONFIG_INVENTORY_FILE_PATH);
+        if (inventoryFilePath != null && inventoryFilePath.trim().length() > 0) {
+            inventoryFile = new File(inventoryFilePath.trim());
+            if (!inventoryFile.exists()) {
+                LOGGER.error("Inventory file not present." + inventoryFilePath);
+                throw new MisfireException("Cannot find inventory file " + inventoryFilePath);
+            }
+        } else if (configuredServers.isEmpty()) {
+            throw new MisfireException("Neither servers to monitor nor an inventory file entered");
+        }
 
-        for (String host : hosts) {
-            Server server = Server.builder().setHost(host.trim())
-                    .setPort(String.valueOf(configuration.getInt(CK_CONFIG_PORT)))
-                    .setUsername(configuration.getString(CK_CONFIG_USER_NAME))
-                    .setPassword(configuration.getString(CK_CONFIG_PASSWORD))
-                    .setTrustStorePath(configuration.getString(CK_CONFIG_TRUSTSTORE_PATH))
-                    .setTrustStorePass(configuration.getString(CK_CONFIG_TRUSTSTORE_PASS))
-                    .build();
-            servers.add(server);
+        if (configuration.getBoolean(CK_CONFIG_SHARDING)) {
+            sharding = createSharding();
         }
 
         String jmxObjectType = configuration.getString(CK_CONFIG_TYPE);
-        ObjectMapper configMapper = new ObjectMapper();
-        String jsonFilePath = jmxObjectType;
-
-        try {
-            if ("custom".equals(jmxObjectType)) {
-                jsonFilePath = configuration.getString(CK_CONFIG_CUSTOM_FILE_PATH);
-                if (jsonFilePath != null && jsonFilePath.length() > 0) {
-                    if (new File(jsonFilePath).exists()) {
-                        queryConfig = configMapper.readValue(new File(jsonFilePath), GLQueryConfig.class);
-                    } else {
-                        LOGGER.error("Custom config file not present." + jsonFilePath);
-                        throw new MisfireException("Cannot find custom config file " + jsonFilePath);
-                    }
-                } else {
-                    LOGGER.error("Custom config file not entered.");
-                    throw new MisfireException("Custom config file not entered");
+        profiles = new ArrayList<>();
+        configFilesLastModified.clear();
+        if ("custom".equals(jmxObjectType)) {
+            String jsonFilePath = configuration.getString(CK_CONFIG_CUSTOM_FILE_PATH);
+            if (jsonFilePath == null || jsonFilePath.length() == 0) {
+                LOGGER.error("Custom config file not entered.");
+                throw new MisfireException("Custom config file not entered");
+            }
+            profiles.add(jsonFilePath);
+        } else {
+            profiles.add(jmxObjectType);
+        }
+        String additionalProfiles = configuration.getString(CK_CONFIG_ADDITIONAL_PROFILES);
+        if (additionalProfiles != null) {
+            for (String profile : additionalProfiles.split(",")) {
+                profile = profile.trim();
+                if (profile.length() > 0 && !profiles.contains(profile)) {
+                    profiles.add(profile);
                 }
-            } else {
-                queryConfig = configMapper.readValue(
-                        JMXTransport.class.getClassLoader().getResourceAsStream(jsonFilePath),
-                        GLQueryConfig.class);
             }
+        }
+        for (int i = 0; i < profiles.size(); i++) {
+            String profile = profiles.get(i);
+            // the custom config file may be relative, additional custom profiles are absolute paths
+            if (i == 0 && "custom".equals(jmxObjectType) || new File(profile).isAbsolute()) {
+                File file = new File(profile);
+                if (!file.exists()) {
+                    LOGGER.error("Custom config file not present." + profile);
+                    throw new MisfireException("Cannot find custom config file " + profile);
+                }
+                configFilesLastModified.put(file, file.lastModified());
+            } else if (JMXTransport.class.getClassLoader().getResource(profile) == null) {
+                throw new MisfireException("Unknown JMX Object type " + profile);
+            }
+        }
+
+        try {
+            queryPlan.set(loadPlan());
         } catch (IOException e) {
             LOGGER.error("Exception while parsing config file", e);
-            throw new MisfireException("Exception while parsing config file " + jsonFilePath, e);
+            throw new MisfireException("Exception while parsing config file " + Joiner.on(", ").join(profiles), e);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Invalid config file " + Joiner.on(", ").join(profiles), e);
+            throw new MisfireException("Invalid config file " + Joiner.on(", ").join(profiles) + ": " + e.getMessage(), e);
+        }
+        publisher = new MessagePublisher(messageInput, openSpool(), spoolDropped);
+        try {
+            String mbeanCachePath = configuration.getString(CK_CONFIG_MBEAN_CACHE_PATH);
+            if (mbeanCachePath != null && !mbeanCachePath.trim().isEmpty()) {
+                File mbeanCacheFile = new File(mbeanCachePath.trim());
+                if (mbeanCacheFile.isDirectory()) {
+                    mbeanCacheFile = new File(mbeanCacheFile, "jmx-" + inputId + ".mbeans.json.gz");
+                }
+                mbeanCache = new MBeanCache(mbeanCacheFile);
+                cachedInventories = mbeanCache.load();
+            }
+            startMonitoring();
+        } catch (MisfireException | RuntimeException e) {
+            // closes the spool file, the input is not started
+            publisher.stop();
+            throw e;
         }
-        startMonitoring(messageInput);
+        // messages of the first polls are spooled until the drainer starts
+        publisher.start();
     }
 
 
-    private void startMonitoring(MessageInput messageInput) {
-        executorService = Executors.newScheduledThreadPool(servers.size());
-        futures = new ArrayList<>(servers.size());
-        long initalDelayMillis = TimeUnit.MILLISECONDS.convert(Math.round(Math.random() * 60), TimeUnit.SECONDS);
-        long executionIntervalMillis = TimeUnit.MILLISECONDS.convert(executionInterval, getExecutionIntervalTimeUnit);
-        for (Server server : servers) {
-            ScheduledFuture future = executorService.scheduleAtFixedRate(new PollTask(messageInput, server, queryConfig, label),
-                    initalDelayMillis, executionIntervalMillis, TimeUnit.MILLISECONDS);
-            futures.add(future);
+    /**
+     * Opens the spool file configured for the input, or the file of the input in the
+     * configured directory.
+     *
+     * @return null if no spool is configured
+     */
+    private MessageSpool openSpool() throws MisfireException {
+        String spoolPath = configuration.getString(CK_CONFIG_SPOOL_PATH);
+        if (spoolPath == null || spoolPath.trim().isEmpty()) {
+            return null;
+        }
+        File spoolFile = new File(spoolPath.trim());
+        if (spoolFile.isDirectory()) {
+            spoolFile = new File(spoolFile, "jmx-" + inputId + ".spool");
+        }
+        int sizeMb = configuration.getInt(CK_CONFIG_SPOOL_SIZE, DEFAULT_SPOOL_SIZE_MB);
+        if (sizeMb <= 0 || sizeMb > 1024) {
+            throw new MisfireException("Spool size must be between 1 and 1024 MB");
+        }
+        try {
+            return new MessageSpool(spoolFile, sizeMb * 1024 * 1024);
+        } catch (IOException e) {
+            LOGGER.error("Cannot open spool file " + spoolFile, e);
+            throw new MisfireException("Cannot open spool file " + spoolFile, e);
         }
-
-        LOGGER.info("JMX Input Plugin started ...");
     }
 
-    @Override
-    public void stop() {
-        if (futures != null) {
-            for (ScheduledFuture future : futures) {
-                future.cancel(true);
+    private HostSharding createSharding() throws MisfireException {
+        String localNode = serverStatus.getNodeId().toString();
+        Set<String> nodes = new LinkedHashSet<>();
+        String shardNodes = configuration.getString(CK_CONFIG_SHARD_NODES);
+        if (shardNodes != null) {
+            for (String node : shardNodes.split(",")) {
+                if (!node.trim().isEmpty()) {
+                    nodes.add(node.trim());
+                }
             }
         }
-
-        if (executorService != null) {
-            executorService.shutdownNow();
+        try {
+            HostSharding hostSharding = new HostSharding(localNode, nodes);
+            LOGGER.info("Sharding servers across nodes " + nodes + " as node " + localNode);
+            return hostSharding;
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Cannot shard servers", e);
+            throw new MisfireException(e.getMessage(), e);
         }
     }
 
-    @Override
-    public MetricSet getMetricSet() {
-        return null;
-    }
-
-    private class PollTask implements Runnable {
+    private void startMonitoring() throws MisfireException {
+        List<Server> servers = new ArrayList<>(configuredServers);
+        if (inventoryFile != null) {
+            try {
+                inventoryLastModified = inventoryFile.lastModified();
+                servers.addAll(readInventory());
+            } catch (IOException | IllegalArgumentException e) {
+                LOGGER.error("Exception while reading inventory file " + inventoryFile, e);
+                throw new MisfireException("Exception while reading inventory file " + inventoryFile, e);
+            }
+        }
 
-        private MessageInput messageInput;
-        private Server server;
-        private GLQueryConfig queryConfig;
-        private JmxQueryProcessor queryProcessor;
-        private String label;
-        private ObjectMapper mapper;
-        private Map<String, GLAttribute> configuredAttributes;
-        private List<Query> queries;
+        executorService = new ScheduledThreadPoolExecutor(BACKGROUND_THREADS);
+        executorService.setRemoveOnCancelPolicy(true);
+        futures = new ArrayList<>();
+        updatePollTasks(servers);
 
+        if (!configFilesLastModified.isEmpty()) {
+            futures.add(executorService.scheduleWithFixedDelay(new ConfigReloadTask(),
+                    CONFIG_RELOAD_CHECK_SECONDS, CONFIG_RELOAD_CHECK_SECONDS, TimeUnit.SECONDS));
+        }
+        if (inventoryFile != null) {
+            futures.add(executorService.scheduleWithFixedDelay(new InventoryReloadTask(),
+                    CONFIG_RELOAD_CHECK_SECONDS, CONFIG_RELOAD_CHECK_SECONDS, TimeUnit.SECONDS));
+        }
 
-        public PollTask(MessageInput messageInput, Server server, GLQueryConfig queryConfig, String label) {
-            this.messageInput = messageInput;
-            this.server = server;
-            this.queryConfig = queryConfig;
-            this.label = label;
-            queryProcessor = new JmxQueryProcessor();
-            mapper = new ObjectMapper();
-            connections = new Hashtable<>();
-            populateConfiguredAttributes();
+        LOGGER.info("JMX Input Plugin started ...");
+    }
 
-        }
+    /**
+     * Brings the running poll tasks in line with the given servers: only new
+     * servers get a task and a connection, tasks of removed servers are
+     * cancelled and their connections closed. A server whose credentials
+     * changed is treated as removed and added again.
+     */
+    private void updatePollTasks(Collection<Server> servers) {
+        List<PollTask> added = new ArrayList<>();
+        Set<PollTask> restored = new HashSet<>();
+        synchronized (pollTasks) {
+            Map<String, Server> wanted = new LinkedHashMap<>();
+            for (Server server : servers) {
+                if (sharding == null || sharding.isLocal(server.getUrl())) {
+                    wanted.put(server.getUrl(), server);
+                }
+            }
 
-        private String getName() {
-            return "JMX-Input-" + server.getUrl();
-        }
+            Iterator<Map.Entry<String, PollTask>> iterator = pollTasks.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, PollTask> entry = iterator.next();
+                Server server = wanted.get(entry.getKey());
+                if (server == null || !sameEndpoint(server, entry.getValue().getServer())) {
+                    entry.getValue().stop();
+                    diagnostics.unregister(inputId, entry.getKey());
+                    iterator.remove();
+                    LOGGER.info("Stopped monitoring " + entry.getKey());
+                }
+            }
 
-        private void populateConfiguredAttributes() {
-            configuredAttributes = new HashMap<>();
-            queries = new ArrayList<>();
-            for (GLQuery glQuery : queryConfig.getQueries()) {
-                Query.Builder queryBuilder = Query.builder().setObj(glQuery.getObject());
-                for (GLAttribute attribute : glQuery.getAttributes()) {
-                    queryBuilder.addAttr(attribute.getName());
-                    String mapKey = attribute.getName();
-                    if (attribute.getKey() != null) {
-                        mapKey += attribute.getKey();
+            // grow the pool before scheduling, shrink it after cancelling
+            executorService.setCorePoolSize(Math.max(pollTasks.size(), wanted.size()) + BACKGROUND_THREADS);
+            for (Server server : wanted.values()) {
+                if (!pollTasks.containsKey(server.getUrl())) {
+                    HostStatistics statistics = diagnostics.register(inputId, server.getHost(), server.getUrl());
+                    PollTask pollTask = new PollTask(server, label, executionIntervalMillis,
+                            queryPlan, statistics, fieldGuard, throttle, emissionMode, maxMessageBytes,
+                            pollTimeoutMillis, connections, publisher);
+                    Map<String, Map<String, String>> inventory = cachedInventories.remove(server.getUrl());
+                    if (inventory != null) {
+                        pollTask.restoreInventory(inventory);
+                        restored.add(pollTask);
                     }
-                    configuredAttributes.put(mapKey,
-                            attribute);
+                    // registered before it is started, so that other updates and stop() see it
+                    pollTasks.put(server.getUrl(), pollTask);
+                    added.add(pollTask);
                 }
-                queries.add(queryBuilder.build());
             }
         }
 
-
-        @Override
-        public void run() {
-            Thread.currentThread().setName(getName());
-            fetchData();
+        // slow servers must not block reloads and stop() while they connect
+        Set<PollTask> connected = connect(added);
+
+        synchronized (pollTasks) {
+            long tickMillis = queryPlan.get().getTickMillis(executionIntervalMillis);
+            for (PollTask pollTask : added) {
+                // skip the tasks removed while connecting
+                if (pollTasks.get(pollTask.getServer().getUrl()) == pollTask) {
+                    boolean warm = connected.contains(pollTask) || restored.contains(pollTask);
+                    pollTask.start(executorService, initialDelayMillis(warm
+                            ? WARM_START_DELAY_SECONDS : COLD_START_DELAY_SECONDS), tickMillis);
+                }
+            }
+            executorService.setCorePoolSize(pollTasks.size() + BACKGROUND_THREADS);
         }
+    }
 
-        private void fetchData() {
-            try {
-                MBeanServerConnection connection = getConnection(server);
-                if (connection != null) {
-                    Map<String, Object> event = createEvent();
-                    for (Query query : queries) {
-                        HashMultimap<ObjectName, Result> results = queryProcessor.processQuery(connection, query);
-                        for (Map.Entry<ObjectName, Result> entry : results.entries()) {
-                            processResult(event, entry);
-                        }
+    /**
+     * Opens the connections of the tasks in parallel, giving up on the servers
+     * that aren't connected within the timeout. Their first poll connects again.
+     *
+     * @return the tasks with an open connection
+     */
+    private Set<PollTask> connect(List<PollTask> tasks) {
+        Set<PollTask> connected = new HashSet<>();
+        if (tasks.isEmpty()) {
+            return connected;
+        }
+        List<Callable<Boolean>> connects = new ArrayList<>(tasks.size());
+        for (final PollTask pollTask : tasks) {
+            connects.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return pollTask.connect();
+                }
+            });
+        }
+        ExecutorService connectExecutor = Executors.newFixedThreadPool(Math.min(tasks.size(), CONNECT_THREADS),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("JMX-Input-connect-%d").build());
+        long start = System.nanoTime();
+        List<String> failed = new ArrayList<>();
+        try {
+            List<Future<Boolean>> results = connectExecutor.invokeAll(connects, CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    if (results.get(i).get()) {
+                        connected.add(tasks.get(i));
+                        continue;
                     }
-                    publishToGLServer(event);
-                } else {
-                    LOGGER.debug("Cannot get connection for server " + server);
+                } catch (CancellationException | ExecutionException e) {
+                    LOGGER.debug("Connecting " + tasks.get(i).getServer().getUrl() + " failed", e);
                 }
-
-            } catch (Exception e) {
-                LOGGER.error("Exception while querying " + server.getHost(), e);
+                failed.add(tasks.get(i).getServer().getUrl());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connectExecutor.shutdownNow();
         }
+        LOGGER.info("Connected " + connected.size() + " of " + tasks.size() + " servers in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        if (!failed.isEmpty()) {
+            LOGGER.warn("Cannot connect " + failed.size() + " servers, retrying on their first poll: " + failed);
+        }
+        return connected;
+    }
 
-        private Map<String, Object> createEvent() {
-            Map<String, Object> eventData = Maps.newHashMap();
-            eventData.put("version", "1.1");
-            eventData.put("_object", queryConfig.getType());
-            eventData.put("host", server.getHost());
-            eventData.put("_label", label);
-            //graylog needs a short_message as part of every event
-            eventData.put("short_message", "JMX");
-            return eventData;
-        }
-
-        private void publishToGLServer(Map<String, Object> eventData) throws IOException {
-            synchronized (JMXTransport.this) {
-                //publish to graylog server
-                ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-                mapper.writeValue(byteStream, eventData);
-                messageInput.processRawMessage(new RawMessage(byteStream.toByteArray()));
-                byteStream.close();
+    /**
+     * Restarts the schedules of the running tasks when changed query intervals
+     * need another tick. Connections are kept.
+     */
+    private void rescheduleOnTickChange(long tickMillis) {
+        synchronized (pollTasks) {
+            for (PollTask pollTask : pollTasks.values()) {
+                if (pollTask.getTickMillis() != tickMillis) {
+                    pollTask.start(executorService, tickMillis, tickMillis);
+                }
             }
         }
+    }
+
+    private static boolean sameEndpoint(Server a, Server b) {
+        return Objects.equals(a.getUsername(), b.getUsername())
+                && Objects.equals(a.getPassword(), b.getPassword());
+    }
+
+    private static long initialDelayMillis(long maxSeconds) {
+        return TimeUnit.MILLISECONDS.convert(Math.round(Math.random() * maxSeconds), TimeUnit.SECONDS);
+    }
 
-        //Ignore all chars, except alpha numeric, @_.
-        private String sanitize(String string) {
-            StringBuilder bldr = new StringBuilder();
-            for (int i = 0; i < string.length(); i++) {
-                if (Character.isAlphabetic(string.codePointAt(i)) ||
-                        Character.isDigit(string.codePointAt(i)) ||
-                        string.charAt(i) == '_' ||
-                        string.charAt(i) == '-' ) {
-                    bldr.append(Character.toLowerCase(string.charAt(i)));
+    /**
+     * Builds the server for a host[:port] or service:jmx: URL entry, falling back
+     * to the configured port and credentials for null values. IPv6 literals are
+     * given bare without a port or bracketed as [address]:port.
+     *
+     * @throws IllegalArgumentException if the port or URL of the entry is invalid
+     */
+    Server parseServer(String entry, String username, String password) {
+        Server.Builder builder = Server.builder();
+        if (entry.startsWith(JMX_URL_PREFIX)) {
+            try {
+                new JMXServiceURL(entry);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid JMX service URL " + entry, e);
+            }
+            // the host and port of the messages are taken from the last host:port of the URL
+            int hostStart = entry.lastIndexOf("//");
+            int separator = entry.lastIndexOf(':');
+            if (hostStart < 0 || separator < hostStart) {
+                throw new IllegalArgumentException("JMX service URL without host and port " + entry);
+            }
+            int portEnd = entry.indexOf('/', separator);
+            checkPort(entry.substring(separator + 1, portEnd < 0 ? entry.length() : portEnd), entry);
+            builder.setUrl(entry);
+        } else {
+            String host = entry;
+            String port = null;
+            if (entry.startsWith("[")) {
+                int close = entry.indexOf(']');
+                if (close < 0 || (close + 1 < entry.length() && entry.charAt(close + 1) != ':')) {
+                    throw new IllegalArgumentException("Invalid IPv6 address in server entry " + entry);
+                }
+                host = entry.substring(1, close);
+                if (close + 1 < entry.length()) {
+                    port = entry.substring(close + 2);
                 }
+            } else {
+                int separator = entry.indexOf(':');
+                // more than one colon is a bare IPv6 literal without port
+                if (separator >= 0 && separator == entry.lastIndexOf(':')) {
+                    host = entry.substring(0, separator);
+                    port = entry.substring(separator + 1);
+                }
+            }
+            if (host.isEmpty()) {
+                throw new IllegalArgumentException("Missing host in server entry " + entry);
             }
-            return bldr.toString();
+            if (port != null) {
+                checkPort(port, entry);
+            }
+            builder.setHost(host)
+                    .setPort(port != null ? port : String.valueOf(configuration.getInt(CK_CONFIG_PORT)));
         }
+        return builder.setUsername(username != null ? username : configuration.getString(CK_CONFIG_USER_NAME))
+                .setPassword(password != null ? password : configuration.getString(CK_CONFIG_PASSWORD))
+                .setTrustStorePath(configuration.getString(CK_CONFIG_TRUSTSTORE_PATH))
+                .setTrustStorePass(configuration.getString(CK_CONFIG_TRUSTSTORE_PASS))
+                .build();
+    }
 
+    private static void checkPort(String port, String entry) {
+        int value;
+        try {
+            value = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid port in server entry " + entry);
+        }
+        if (value < 1 || value > 65535) {
+            throw new IllegalArgumentException("Invalid port in server entry " + entry);
+        }
+    }
 
-        //process JMXTrans result object as per configured json
-        private void processResult(Map<String, Object> event, Map.Entry<ObjectName, Result> objectResult) {
-            Result result = objectResult.getValue();
-            String attrName = result.getAttributeName();
-            Set<String> resultKeys = result.getValues().keySet();
-
-            Map<String, String> objectProperties = new HashMap<>();
+    /**
+     * Reads the inventory file, one server per line as host[:port] or service:jmx: URL,
+     * optionally followed by username and password. Blank lines and lines starting
+     * with # are ignored.
+     */
+    private List<Server> readInventory() throws IOException {
+        List<Server> servers = new ArrayList<>();
+        for (String line : Files.readAllLines(inventoryFile.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            servers.add(parseServer(tokens[0],
+                    tokens.length > 1 ? tokens[1] : null,
+                    tokens.length > 2 ? tokens[2] : null));
+        }
+        return servers;
+    }
 
-            for (Map.Entry<String, String> objPropEntry : objectResult.getKey().getKeyPropertyList().entrySet()) {
-                objectProperties.put(objPropEntry.getKey(), sanitize(objPropEntry.getValue()));
+    @Override
+    public void stop() {
+        if (futures != null) {
+            for (ScheduledFuture future : futures) {
+                future.cancel(true);
             }
+        }
 
-            for (String key : resultKeys) {
-                String label;
-                String attrKey = attrName;
-                if (attrName.equals(key)) {
-                    if (configuredAttributes.containsKey(attrKey)) {
-                        if (configuredAttributes.get(attrKey).getLabel() != null) {
-                            label = formatLabel(objectProperties, configuredAttributes.get(attrKey).getLabel());
-                            event.put("_" + label, result.getValues().get(key));
-                        }
-                    }
-                } else {
-                    attrKey += key;
-                    if (configuredAttributes.containsKey(attrKey)) {
-                        if (configuredAttributes.get(attrKey).getLabel() != null) {
-                            label = formatLabel(objectProperties, configuredAttributes.get(attrKey).getLabel());
-                            event.put("_" + label, result.getValues().get(key));
-                        }
-                    }
-                }
+        synchronized (pollTasks) {
+            Map<String, Map<String, Map<String, String>>> inventories = new HashMap<>();
+            for (Map.Entry<String, PollTask> entry : pollTasks.entrySet()) {
+                entry.getValue().stop();
+                diagnostics.unregister(inputId, entry.getKey());
+                inventories.put(entry.getKey(), entry.getValue().getInventory());
+            }
+            pollTasks.clear();
+            if (mbeanCache != null) {
+                mbeanCache.save(inventories);
             }
         }
 
-        private String formatLabel(Map<String, String> objectProperties, String label) {
-            if (label.contains("{")) {
-                for (Map.Entry<String, String> objectPropertyEntry : objectProperties.entrySet()) {
-                    label = label.replaceAll("\\{" + objectPropertyEntry.getKey() + "\\}", objectPropertyEntry.getValue());
-                }
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        if (publisher != null) {
+            publisher.stop();
+        }
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        return new MetricSet() {
+            @Override
+            public Map<String, Metric> getMetrics() {
+                return ImmutableMap.<String, Metric>builder()
+                        .put("droppedFields", droppedFields)
+                        .put("shedMessages", shedMessages)
+                        .put("shedBytes", shedBytes)
+                        .put("shedQueries", shedQueries)
+                        .put("shedDerivedFields", shedDerivedFields)
+                        .put("spoolDropped", spoolDropped)
+                        .build();
+            }
+        };
+    }
+
+    /**
+     * Reads all profiles of the input and compiles them into one plan, merging
+     * queries the profiles have in common.
+     */
+    private QueryPlan loadPlan() throws IOException {
+        ObjectMapper configMapper = new ObjectMapper();
+        List<GLQueryConfig> configs = new ArrayList<>();
+        for (String profile : profiles) {
+            File file = new File(profile);
+            if (configFilesLastModified.containsKey(file)) {
+                configs.add(configMapper.readValue(file, GLQueryConfig.class));
+            } else {
+                configs.add(configMapper.readValue(
+                        JMXTransport.class.getClassLoader().getResourceAsStream(profile),
+                        GLQueryConfig.class));
             }
-            return label;
         }
+        return QueryPlan.compile(ProfileMerger.merge(configs));
     }
 
-    private MBeanServerConnection getConnection(Server server) {
-        MBeanServerConnection connection = null;
-        boolean create = false;
-        if (connections.containsKey(server.getUrl())) {
-            connection = connections.get(server.getUrl());
+    /**
+     * Re-reads the profiles when one of the custom config files has changed and
+     * swaps the new plan into the running poll tasks. Connections are kept, a broken file keeps the
+     * previous plan in place.
+     */
+    private class ConfigReloadTask implements Runnable {
+
+        // modification times of the files that last failed to load, to log each failure once
+        private Map<File, Long> failed;
+
+        @Override
+        public void run() {
+            Map<File, Long> modified = new HashMap<>();
+            boolean changed = false;
+            for (Map.Entry<File, Long> entry : configFilesLastModified.entrySet()) {
+                long lastModified = entry.getKey().lastModified();
+                modified.put(entry.getKey(), lastModified);
+                if (lastModified != 0 && lastModified != entry.getValue()) {
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return;
+            }
             try {
-                connection.getMBeanCount();
-            } catch (IOException e) {
-                //Connection not proper. So get a new connection
-                LOGGER.debug("Connection not alive for server " + server, e);
-                create = true;
+                QueryPlan plan = loadPlan();
+                queryPlan.set(plan);
+                fieldGuard.retainQueries(plan);
+                rescheduleOnTickChange(plan.getTickMillis(executionIntervalMillis));
+                // recorded only now, so that a file caught half written is loaded again on the next check
+                for (Map.Entry<File, Long> entry : configFilesLastModified.entrySet()) {
+                    if (modified.get(entry.getKey()) != 0) {
+                        entry.setValue(modified.get(entry.getKey()));
+                    }
+                }
+                failed = null;
+                LOGGER.info("Reloaded custom config files " + configFilesLastModified.keySet());
+            } catch (Exception e) {
+                if (modified.equals(failed)) {
+                    LOGGER.debug("Exception while reloading config files " + configFilesLastModified.keySet(), e);
+                } else {
+                    failed = modified;
+                    LOGGER.error("Exception while reloading config files " + configFilesLastModified.keySet()
+                            + ", keeping previous config", e);
+                }
             }
-        } else {
-            create = true;
         }
+    }
+
+    /**
+     * Re-reads the inventory file when it has changed and applies the difference
+     * to the running poll tasks. A broken file keeps the current servers.
+     */
+    private class InventoryReloadTask implements Runnable {
 
-        if (create) {
+        // modification time of the file that last failed to load, to log each failure once
+        private long failed;
+
+        @Override
+        public void run() {
+            long lastModified = inventoryFile.lastModified();
+            if (lastModified == 0 || lastModified == inventoryLastModified) {
+                return;
+            }
             try {
-                connection = server.getServerConnection().getMBeanServerConnection();
-                connections.put(server.getUrl(), connection);
+                List<Server> servers = new ArrayList<>(configuredServers);
+                servers.addAll(readInventory());
+                updatePollTasks(servers);
+                // recorded only now, so that a file caught half written is loaded again on the next check
+                inventoryLastModified = lastModified;
+                failed = 0;
+                LOGGER.info("Reloaded inventory file " + inventoryFile);
             } catch (Exception e) {
-                //Cannot create new Connection
-                LOGGER.error("Cannot create new connection for server" + server, e);
+                if (lastModified == failed) {
+                    LOGGER.debug("Exception while reloading inventory file " + inventoryFile, e);
+                } else {
+                    failed = lastModified;
+                    LOGGER.error("Exception while reloading inventory file " + inventoryFile + ", keeping current servers", e);
+                }
             }
         }
-        return connection;
     }
 
-
     @FactoryClass
     public interface Factory extends Transport.Factory<JMXTransport> {
         @Override
@@ -372,7 +739,13 @@ public class JMXTransport implements Transport {
             cr.addField(new TextField(CK_CONFIG_HOSTS,
                     "Servers to monitor",
                     "",
-                    "Comma separated IP Address/Host names to monitor"));
+                    "Comma separated IP Address/Host names to monitor, each optionally with ':port' or given as full service:jmx: URL",
+                    ConfigurationField.Optional.OPTIONAL));
+            cr.addField(new TextField(CK_CONFIG_INVENTORY_FILE_PATH,
+                    "Inventory File Path",
+                    "",
+                    "Absolute path of a file listing further servers to monitor, one 'host[:port] [username password]' or 'service:jmx:... [username password]' per line. Changes are applied without restarting the input",
+                    ConfigurationField.Optional.OPTIONAL));
             cr.addField(new NumberField(CK_CONFIG_PORT,
                     "Port",
                     1099,
@@ -402,6 +775,13 @@ public class JMXTransport implements Transport {
                     ConfigurationField.Optional.OPTIONAL
             ));
 
+            cr.addField(new TextField(CK_CONFIG_ADDITIONAL_PROFILES,
+                    "Additional Profiles",
+                    "",
+                    "Comma separated JMX Object types (e.g. tomcat.json) or absolute paths of JSON config files to poll as well. Queries the profiles have in common are polled once",
+                    ConfigurationField.Optional.OPTIONAL
+            ));
+
             cr.addField(new TextField(CK_CONFIG_USER_NAME,
                     "Username",
                     "",
@@ -433,6 +813,72 @@ public class JMXTransport implements Transport {
                     ConfigurationField.Optional.NOT_OPTIONAL
             ));
 
+            cr.addField(new BooleanField(CK_CONFIG_SHARDING,
+                    "Shard servers across nodes",
+                    false,
+                    "For global inputs: poll every server from only one of the shard nodes instead of from every node"));
+            cr.addField(new TextField(CK_CONFIG_SHARD_NODES,
+                    "Shard nodes",
+                    "",
+                    "Comma separated IDs of the nodes sharing the servers when sharding is enabled. Servers are assigned by consistent hashing, so changing the list only moves the servers of added or removed nodes",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            cr.addField(new NumberField(CK_CONFIG_POLL_TIMEOUT,
+                    "Poll timeout",
+                    0,
+                    "Seconds after which a poll of a server gives up on the remaining queries and publishes the results collected so far with _jmx_partial=true. 0 for no timeout",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            cr.addField(new NumberField(CK_CONFIG_MAX_MESSAGE_RATE,
+                    "Max. messages per second",
+                    0,
+                    "Messages beyond this rate are dropped. As the budget runs low, queries with the lowest priority are no longer polled. 0 for no limit",
+                    ConfigurationField.Optional.OPTIONAL));
+            cr.addField(new NumberField(CK_CONFIG_MAX_BYTE_RATE,
+                    "Max. bytes per second",
+                    0,
+                    "Message bytes beyond this rate are dropped, with the same priority based shedding. 0 for no limit",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            cr.addField(new TextField(CK_CONFIG_SPOOL_PATH,
+                    "Spool File Path",
+                    "",
+                    "Absolute path of a local spool file (or directory) for messages. Polls then only append to the spool and messages are replayed in order once Graylog accepts them again, also after a restart",
+                    ConfigurationField.Optional.OPTIONAL));
+            cr.addField(new NumberField(CK_CONFIG_SPOOL_SIZE,
+                    "Spool size (MB)",
+                    DEFAULT_SPOOL_SIZE_MB,
+                    "Size of the spool file. Messages that don't fit are dropped and counted in the spoolDropped metric",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            cr.addField(new TextField(CK_CONFIG_MBEAN_CACHE_PATH,
+                    "MBean Cache Path",
+                    "",
+                    "Absolute path of a local file (or directory) where the MBeans found on each server are kept across restarts. Servers in the cache are polled within seconds after a restart, without waiting for MBean discovery",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            Map<String, String> emissionModes = new HashMap<>();
+            emissionModes.put("host", "One message per server");
+            emissionModes.put("query", "One message per query");
+            emissionModes.put("object", "One message per MBean");
+            cr.addField(new DropdownField(CK_CONFIG_EMISSION_MODE,
+                    "Messages per poll",
+                    "host",
+                    emissionModes,
+                    "How the results of a poll are grouped into messages. Per query messages carry the query in _jmx_query, per MBean messages the ObjectName in _jmx_object",
+                    ConfigurationField.Optional.OPTIONAL));
+            cr.addField(new NumberField(CK_CONFIG_MAX_MESSAGE_BYTES,
+                    "Max. message size",
+                    DEFAULT_MAX_MESSAGE_BYTES,
+                    "Messages exceeding this size in bytes are split into several messages with the same host and label fields. 0 for no limit",
+                    ConfigurationField.Optional.OPTIONAL));
+
+            cr.addField(new NumberField(CK_CONFIG_MAX_FIELDS,
+                    "Max. distinct fields",
+                    DEFAULT_MAX_FIELDS,
+                    "Maximum number of distinct fields created from label templates such as jvm.gc.{name}.count. Fields of MBeans not seen for 10 polls make room for new ones, others are dropped. 0 for no limit",
+                    ConfigurationField.Optional.OPTIONAL));
+
             cr.addField(new TextField(CK_CONFIG_TRUSTSTORE_PATH,
                     "SSL Truststore Path",
                     "",
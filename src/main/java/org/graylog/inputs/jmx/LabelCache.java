@@ -0,0 +1,53 @@
+package org.graylog.inputs.jmx;
+
+import javax.management.ObjectName;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The field names rendered from the label templates for the MBeans of a
+ * server, so the key properties of an ObjectName are sanitized and the labels
+ * rendered once instead of on every poll. Holds the least recently used
+ * ObjectNames up to a bound; MBeans that disappear are removed right away.
+ */
+class LabelCache {
+
+    private static final int MAX_OBJECT_NAMES = 10000;
+
+    private final Map<ObjectName, Map<LabelTemplate, String>> fieldNames =
+            new LinkedHashMap<ObjectName, Map<LabelTemplate, String>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ObjectName, Map<LabelTemplate, String>> eldest) {
+                    return size() > MAX_OBJECT_NAMES;
+                }
+            };
+
+    synchronized String fieldName(LabelTemplate label, ObjectName objectName) {
+        if (!label.isDynamic()) {
+            return label.fieldName(objectName);
+        }
+        Map<LabelTemplate, String> labels = fieldNames.get(objectName);
+        if (labels == null) {
+            labels = new HashMap<>(4);
+            fieldNames.put(objectName, labels);
+        }
+        String fieldName = labels.get(label);
+        if (fieldName == null) {
+            fieldName = label.fieldName(objectName);
+            labels.put(label, fieldName);
+        }
+        return fieldName;
+    }
+
+    synchronized void remove(ObjectName objectName) {
+        fieldNames.remove(objectName);
+    }
+
+    /**
+     * Drops all field names, e.g. when the label templates were replaced.
+     */
+    synchronized void clear() {
+        fieldNames.clear();
+    }
+}
@@ -0,0 +1,95 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A field label with optional {property} placeholders, e.g. jvm.gc.{name}.count,
+ * parsed once. Placeholders are replaced by the sanitized value of the key
+ * property of the matched ObjectName, unknown properties are left as they are.
+ */
+public final class LabelTemplate {
+
+    private final String label;
+    private final String[] literals;
+    private final String[] properties;
+    private final String fieldName;
+
+    private LabelTemplate(String label, String[] literals, String[] properties) {
+        this.label = label;
+        this.literals = literals;
+        this.properties = properties;
+        this.fieldName = properties.length == 0 ? "_" + label : null;
+    }
+
+    public static LabelTemplate compile(String label) {
+        List<String> literals = new ArrayList<>();
+        List<String> properties = new ArrayList<>();
+        int start = 0;
+        int open;
+        while ((open = label.indexOf('{', start)) >= 0) {
+            int close = label.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unbalanced '{' in label " + label);
+            }
+            String property = label.substring(open + 1, close);
+            if (property.isEmpty() || property.indexOf('{') >= 0) {
+                throw new IllegalArgumentException("Invalid placeholder in label " + label);
+            }
+            literals.add(label.substring(start, open));
+            properties.add(property);
+            start = close + 1;
+        }
+        if (label.indexOf('}', start) >= 0) {
+            throw new IllegalArgumentException("Unbalanced '}' in label " + label);
+        }
+        literals.add(label.substring(start));
+        return new LabelTemplate(label, literals.toArray(new String[literals.size()]),
+                properties.toArray(new String[properties.size()]));
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Whether the field name depends on the ObjectName, i.e. the label has placeholders.
+     */
+    public boolean isDynamic() {
+        return properties.length > 0;
+    }
+
+    public ImmutableList<String> getProperties() {
+        return ImmutableList.copyOf(properties);
+    }
+
+    public String render(ObjectName objectName) {
+        if (properties.length == 0) {
+            return label;
+        }
+        StringBuilder bldr = new StringBuilder(label.length() + 16);
+        for (int i = 0; i < properties.length; i++) {
+            bldr.append(literals[i]);
+            String value = objectName.getKeyProperty(properties[i]);
+            if (value != null) {
+                bldr.append(EventMapper.sanitize(value));
+            } else {
+                bldr.append('{').append(properties[i]).append('}');
+            }
+        }
+        return bldr.append(literals[properties.length]).toString();
+    }
+
+    /**
+     * The GELF additional field name, i.e. the rendered label prefixed with '_'.
+     */
+    public String fieldName(ObjectName objectName) {
+        if (fieldName != null) {
+            return fieldName;
+        }
+        return "_" + render(objectName);
+    }
+}
@@ -0,0 +1,74 @@
+package org.graylog.inputs.jmx;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped JSON file with the MBean inventory of each server of an input: the
+ * ObjectNames each query matched and the class names of the MBeans. Written on
+ * stop and read on launch, so restarted poll tasks can fetch the known MBeans
+ * right away instead of matching every query and loading every MBeanInfo first.
+ */
+class MBeanCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MBeanCache.class);
+
+    private static final TypeReference<Map<String, Map<String, Map<String, String>>>> TYPE =
+            new TypeReference<Map<String, Map<String, Map<String, String>>>>() {
+            };
+
+    private final File file;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    MBeanCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the inventories by server URL, empty if the file is missing or unreadable
+     */
+    Map<String, Map<String, Map<String, String>>> load() {
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            Map<String, Map<String, Map<String, String>>> inventories = mapper.readValue(in, TYPE);
+            LOGGER.info("Loaded MBean cache of {} servers from {}", inventories.size(), file);
+            return inventories;
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable MBean cache " + file, e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * Replaces the file atomically, so a crash while saving keeps the previous cache.
+     */
+    void save(Map<String, Map<String, Map<String, String>>> inventories) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(new FileOutputStream(temp))) {
+                mapper.writeValue(out, inventories);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Cannot save MBean cache " + file, e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Counter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.graylog2.plugin.inputs.MessageInput;
+import org.graylog2.plugin.journal.RawMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the messages of the poll tasks of an input over to the input. Without
+ * a spool the poll thread publishes directly. With a spool the poll thread only
+ * appends to it and a drainer thread replays the spool into the input in order,
+ * retrying with backoff while the input doesn't accept messages.
+ */
+class MessagePublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessagePublisher.class);
+
+    private static final long POLL_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final MessageInput messageInput;
+    private final MessageSpool spool;
+    private final Counter spoolDropped;
+    private Thread drainer;
+    private volatile boolean running;
+
+    /**
+     * @param spool null to publish directly
+     */
+    MessagePublisher(MessageInput messageInput, MessageSpool spool, Counter spoolDropped) {
+        this.messageInput = messageInput;
+        this.spool = spool;
+        this.spoolDropped = spoolDropped;
+    }
+
+    void publish(byte[] payload) {
+        if (spool == null) {
+            synchronized (this) {
+                //publish to graylog server
+                messageInput.processRawMessage(new RawMessage(payload));
+            }
+        } else if (!spool.append(payload)) {
+            spoolDropped.inc();
+        }
+    }
+
+    void start() {
+        if (spool != null) {
+            running = true;
+            drainer = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("JMX-Input-spool-" + messageInput.getId())
+                    .build().newThread(new Drainer());
+            drainer.start();
+        }
+    }
+
+    void stop() {
+        running = false;
+        if (drainer != null) {
+            drainer.interrupt();
+            try {
+                drainer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (spool != null) {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                LOGGER.warn("Exception while closing the spool", e);
+            }
+        }
+    }
+
+    private class Drainer implements Runnable {
+        @Override
+        public void run() {
+            long backoffMillis = 0;
+            while (running) {
+                try {
+                    if (backoffMillis > 0) {
+                        Thread.sleep(backoffMillis);
+                    }
+                    byte[] payload = spool.peek(POLL_MILLIS);
+                    if (payload == null) {
+                        continue;
+                    }
+                    try {
+                        messageInput.processRawMessage(new RawMessage(payload));
+                    } catch (RuntimeException e) {
+                        backoffMillis = Math.min(MAX_BACKOFF_MILLIS, Math.max(POLL_MILLIS, 2 * backoffMillis));
+                        LOGGER.warn("Input does not accept messages, retrying in " + backoffMillis + " ms", e);
+                        continue;
+                    }
+                    spool.commit(payload);
+                    backoffMillis = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (RuntimeException e) {
+                    // keep draining, a dead drainer would leave the spool to fill up unnoticed
+                    backoffMillis = MAX_BACKOFF_MILLIS;
+                    LOGGER.error("Exception while draining the spool, retrying in " + backoffMillis + " ms", e);
+                }
+            }
+        }
+    }
+}
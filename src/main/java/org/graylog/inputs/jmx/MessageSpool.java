@@ -0,0 +1,203 @@
+package org.graylog.inputs.jmx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Bounded, append-only ring of message payloads in a memory mapped file.
+ * Appending never blocks on the consumer; when the ring is full the new
+ * payload is rejected. The consumer peeks the oldest payload and commits it
+ * once handed over, so a payload is only removed after it was delivered.
+ * Read and write positions are kept in the file header, so undelivered
+ * payloads survive a restart of the input.
+ * <p>
+ * File layout: magic (int), capacity (int), read position (long), write
+ * position (long), followed by the ring of length prefixed payloads.
+ * Positions grow monotonically and are taken modulo the capacity.
+ */
+class MessageSpool implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageSpool.class);
+
+    private static final int MAGIC = 0x4a4d5853;
+    private static final int HEADER_BYTES = 24;
+    private static final int READ_POSITION = 8;
+    private static final int WRITE_POSITION = 16;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long readPosition;
+    private long writePosition;
+    // the buffer must not be accessed once it is unmapped
+    private boolean closed;
+
+    MessageSpool(File path, int capacity) throws IOException {
+        this.path = path;
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(path, "rw");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity);
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == capacity) {
+            readPosition = buffer.getLong(READ_POSITION);
+            writePosition = buffer.getLong(WRITE_POSITION);
+            if (readPosition < 0 || writePosition < readPosition || writePosition - readPosition > capacity) {
+                LOGGER.warn("Corrupt spool file {}, discarding its content", path);
+                readPosition = writePosition = 0;
+            } else if (writePosition > readPosition) {
+                LOGGER.info("Resuming spool file {} with {} undelivered bytes", path, writePosition - readPosition);
+            }
+        } else {
+            readPosition = writePosition = 0;
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, capacity);
+        buffer.putLong(READ_POSITION, readPosition);
+        buffer.putLong(WRITE_POSITION, writePosition);
+    }
+
+    /**
+     * @return false if the spool has no room for the payload
+     */
+    synchronized boolean append(byte[] payload) {
+        long size = 4L + payload.length;
+        if (closed || writePosition - readPosition + size > capacity) {
+            return false;
+        }
+        write(writePosition, intBytes(payload.length));
+        write(writePosition + 4, payload);
+        writePosition += size;
+        buffer.putLong(WRITE_POSITION, writePosition);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * The oldest undelivered payload, waiting up to the timeout for one to be appended.
+     * A record whose length doesn't fit the used part of the ring, e.g. after a torn
+     * write, discards the content of the spool.
+     *
+     * @return null if the spool stayed empty, is corrupt or was closed
+     */
+    synchronized byte[] peek(long timeoutMillis) throws InterruptedException {
+        if (!closed && readPosition == writePosition) {
+            wait(timeoutMillis);
+        }
+        if (closed || readPosition == writePosition) {
+            return null;
+        }
+        byte[] bytes = new byte[4];
+        read(readPosition, bytes);
+        int length = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        if (length < 0 || length > writePosition - readPosition - 4) {
+            LOGGER.error("Corrupt record of {} bytes in spool file {}, discarding {} undelivered bytes",
+                    length, path, writePosition - readPosition);
+            readPosition = writePosition = 0;
+            buffer.putLong(READ_POSITION, readPosition);
+            buffer.putLong(WRITE_POSITION, writePosition);
+            return null;
+        }
+        byte[] payload = new byte[length];
+        read(readPosition + 4, payload);
+        return payload;
+    }
+
+    /**
+     * Removes the payload returned by the last {@link #peek(long)}.
+     */
+    synchronized void commit(byte[] payload) {
+        if (closed) {
+            return;
+        }
+        readPosition += 4L + payload.length;
+        buffer.putLong(READ_POSITION, readPosition);
+    }
+
+    synchronized long getUsedBytes() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * Flushes and unmaps the file. Later calls find the spool full and empty.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        try {
+            buffer.force();
+        } finally {
+            file.close();
+            unmap(buffer);
+        }
+    }
+
+    /**
+     * Releases the mapping right away instead of when the buffer is garbage collected,
+     * so that the file can be deleted or mapped again. There is no public API for it:
+     * Java 9 and later offer Unsafe.invokeCleaner, older versions the cleaner of the buffer.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (Exception e) {
+            LOGGER.debug("Cannot unmap the spool file, it is released when garbage collected", e);
+        }
+    }
+
+    private void write(long position, byte[] bytes) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(bytes.length, capacity - offset);
+        ByteBuffer ring = buffer.duplicate();
+        ring.position(HEADER_BYTES + offset);
+        ring.put(bytes, 0, first);
+        if (first < bytes.length) {
+            ring.position(HEADER_BYTES);
+            ring.put(bytes, first, bytes.length - first);
+        }
+    }
+
+    private void read(long position, byte[] bytes) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(bytes.length, capacity - offset);
+        ByteBuffer ring = buffer.duplicate();
+        ring.position(HEADER_BYTES + offset);
+        ring.get(bytes, 0, first);
+        if (first < bytes.length) {
+            ring.position(HEADER_BYTES);
+            ring.get(bytes, first, bytes.length - first);
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+}
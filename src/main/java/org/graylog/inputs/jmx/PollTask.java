@@ -0,0 +1,545 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.googlecode.jmxtrans.jmx.JmxQueryProcessor;
+import com.googlecode.jmxtrans.jmx.ResultBatch;
+import com.googlecode.jmxtrans.jmx.SeriesTable;
+import com.googlecode.jmxtrans.model.Result;
+import com.googlecode.jmxtrans.model.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Periodically polls one JMX server with the current query plan of the input
+ * and publishes the results as GELF events grouped as per the emission mode.
+ * Holds a reference to the connection to the server, which is shared with the
+ * poll tasks of other inputs polling the same server.
+ */
+class PollTask implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollTask.class);
+
+    private static final Comparator<CompiledQuery> BY_PRIORITY = new Comparator<CompiledQuery>() {
+        @Override
+        public int compare(CompiledQuery o1, CompiledQuery o2) {
+            return Integer.compare(o2.getPriority(), o1.getPriority());
+        }
+    };
+
+    private final Server server;
+    private final String label;
+    private final AtomicReference<QueryPlan> queryPlan;
+    private final HostStatistics statistics;
+    private final MessagePublisher publisher;
+    private final FieldGuard fieldGuard;
+    private final PublishThrottle throttle;
+    private final EmissionMode emissionMode;
+    private final int maxMessageBytes;
+    private final long timeoutMillis;
+    private final long intervalMillis;
+    private final JmxQueryProcessor queryProcessor;
+    private final EmptyMatchBackoff emptyMatches = new EmptyMatchBackoff();
+    // last value of each derived field by message group, for the emit conditions; in object
+    // mode the groups of removed MBeans are dropped by the query processor's thread
+    private final Map<String, Map<String, Double>> derivedValues = new ConcurrentHashMap<>();
+    // reused by the queries of the poll task, replaced when a timed out call may still fill it
+    private ResultBatch batch;
+    // whether the last query was cut off by the poll deadline
+    private boolean cutOff;
+    private final LabelCache labels = new LabelCache();
+    // the plan whose label templates the label cache holds
+    private QueryPlan labelsPlan;
+    private final ConnectionRegistry connections;
+    private final ConnectionRegistry.SharedConnection sharedConnection;
+    // the shared connection as last used by this task, to tell when it was reopened
+    private volatile MBeanServerConnection connection;
+    // a connection opened before the task is started may still be in progress on the first poll
+    private final Object connectLock = new Object();
+    private boolean released;
+    private ScheduledFuture<?> future;
+    private volatile long tickMillis;
+    private long tick;
+    // values of the static attributes by query, fetched once per connection and plan
+    private Map<CompiledQuery, HashMultimap<ObjectName, Result>> staticResults;
+    private QueryPlan staticResultsPlan;
+
+    PollTask(Server server, String label, long intervalMillis, AtomicReference<QueryPlan> queryPlan,
+             HostStatistics statistics, FieldGuard fieldGuard, PublishThrottle throttle, EmissionMode emissionMode,
+             int maxMessageBytes, long timeoutMillis, ConnectionRegistry connections, MessagePublisher publisher) {
+        this.server = server;
+        this.label = label;
+        this.intervalMillis = intervalMillis;
+        this.queryPlan = queryPlan;
+        this.statistics = statistics;
+        this.fieldGuard = fieldGuard;
+        this.throttle = throttle;
+        this.emissionMode = emissionMode;
+        this.maxMessageBytes = maxMessageBytes;
+        this.timeoutMillis = timeoutMillis;
+        this.connections = connections;
+        this.sharedConnection = connections.acquire(server);
+        this.publisher = publisher;
+        this.queryProcessor = new JmxQueryProcessor();
+        queryProcessor.setRemovalListener(new JmxQueryProcessor.RemovalListener() {
+            @Override
+            public void removed(ObjectName objectName) {
+                labels.remove(objectName);
+                if (PollTask.this.emissionMode == EmissionMode.OBJECT) {
+                    derivedValues.remove(objectName.getCanonicalName());
+                }
+            }
+        });
+    }
+
+    Server getServer() {
+        return server;
+    }
+
+    /**
+     * Schedules the task to run every tick. Queries are polled on the ticks
+     * matching their interval, the first run polls all queries.
+     */
+    synchronized void start(ScheduledExecutorService executorService, long initialDelayMillis, long tickMillis) {
+        if (future != null) {
+            future.cancel(false);
+        }
+        this.tickMillis = tickMillis;
+        this.tick = 0;
+        future = executorService.scheduleAtFixedRate(this, initialDelayMillis, tickMillis, TimeUnit.MILLISECONDS);
+        statistics.setSchedule(future);
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * The ObjectNames and MBean class names resolved by the queries of this server.
+     */
+    Map<String, Map<String, String>> getInventory() {
+        return queryProcessor.exportInventory();
+    }
+
+    /**
+     * Lets the first poll fetch the MBeans of a previous run's inventory without
+     * resolving the queries first. Must be called before the task is started.
+     */
+    void restoreInventory(Map<String, Map<String, String>> inventory) {
+        queryProcessor.importInventory(inventory);
+    }
+
+    /**
+     * Cancels the schedule and releases the connection.
+     */
+    synchronized void stop() {
+        if (future != null) {
+            future.cancel(true);
+        }
+        if (!released) {
+            released = true;
+            connections.release(sharedConnection);
+        }
+    }
+
+    /**
+     * Opens the connection ahead of the first poll.
+     *
+     * @return false if the server can't be connected, the first poll tries again
+     */
+    boolean connect() {
+        return getConnection() != null;
+    }
+
+    private String getName() {
+        return "JMX-Input-" + server.getUrl();
+    }
+
+    @Override
+    public void run() {
+        Thread.currentThread().setName(getName());
+        fetchData();
+    }
+
+    /**
+     * The queries to poll in this tick, highest priority first. Queries due on the
+     * same tick share one poll and one event.
+     */
+    private List<CompiledQuery> dueQueries(QueryPlan plan) {
+        List<CompiledQuery> due = new ArrayList<>(plan.getQueries().size());
+        for (CompiledQuery query : plan.getQueries()) {
+            long periodTicks = Math.max(1, query.getIntervalMillis(intervalMillis) / tickMillis);
+            if (tick % periodTicks == 0) {
+                due.add(query);
+            }
+        }
+        tick++;
+        Collections.sort(due, BY_PRIORITY);
+        return due;
+    }
+
+    private void fetchData() {
+        QueryPlan plan = queryPlan.get();
+        List<CompiledQuery> queries = dueQueries(plan);
+        if (queries.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        // without a poll timeout, polls run until they are complete
+        long deadline = timeoutMillis > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        try {
+            MBeanServerConnection connection = getConnection();
+            if (connection != null) {
+                EventMapper eventMapper = plan.getEventMapper();
+                if (labelsPlan != plan) {
+                    labels.clear();
+                    labelsPlan = plan;
+                }
+                queryProcessor.startCycle();
+                Map<String, Map<String, Object>> staticGroups = getStaticFields(connection, plan, deadline);
+                // the message groups by the time their values were fetched, reused results keep their own time
+                Map<Long, Map<String, Map<String, Object>>> messages = new TreeMap<>();
+                Map<String, Map<String, Object>> groups = new LinkedHashMap<>();
+                messages.put(now, groups);
+                for (Map.Entry<String, Map<String, Object>> group : staticGroups.entrySet()) {
+                    groups.put(group.getKey(), new HashMap<>(group.getValue()));
+                }
+                int matchedMBeans = 0;
+                List<String> skipped = new ArrayList<>();
+                int minPriority = throttle.minPriority(plan);
+                boolean shedDerivedFields = throttle.shedsDerivedFields(plan);
+                for (CompiledQuery query : queries) {
+                    if (query.getAttributes().length == 0 || emptyMatches.skip(query.getKey(), now)) {
+                        continue;
+                    }
+                    if (query.getPriority() < minPriority) {
+                        throttle.recordShedQuery();
+                        statistics.query(query.getKey()).recordShed();
+                        continue;
+                    }
+                    if (pastDeadline(deadline)) {
+                        skipped.add(query.getKey());
+                        statistics.query(query.getKey()).recordSkipped();
+                        continue;
+                    }
+                    long queryStart = System.nanoTime();
+                    QueryStatistics queryStatistics = statistics.query(query.getKey());
+                    ResultBatch results;
+                    try {
+                        results = processQuery(connection, query, now, deadline);
+                    } catch (Exception e) {
+                        queryStatistics.recordFailure();
+                        throw e;
+                    }
+                    if (cutOff) {
+                        LOGGER.warn("Query " + query.getKey() + " on " + server + " exceeded the poll deadline");
+                        skipped.add(query.getKey());
+                        queryStatistics.recordSkipped();
+                    }
+                    if (results == null) {
+                        queryStatistics.recordFailure();
+                        continue;
+                    }
+                    Map<String, Map<String, Object>> queryGroups = messages.get(results.getEpoch());
+                    if (queryGroups == null) {
+                        queryGroups = new LinkedHashMap<>();
+                        messages.put(results.getEpoch(), queryGroups);
+                    }
+                    int queryPayloadBytes = mapBatch(eventMapper, queryGroups, staticGroups, query, results);
+                    int queryMBeans = results.getMBeanCount();
+                    matchedMBeans += queryMBeans;
+                    queryStatistics.record(elapsedMillis(queryStart), queryMBeans, results.size(), queryPayloadBytes,
+                            !cutOff);
+                    long emptySince = emptyMatches.record(query.getKey(), queryMBeans,
+                            query.getIntervalMillis(intervalMillis), now);
+                    queryStatistics.setEmptyMatch(emptySince, emptyMatches.getBackoffMillis(query.getKey()));
+                }
+                if (groups.isEmpty() && messages.size() == 1 && emissionMode == EmissionMode.HOST) {
+                    groups.put("", new HashMap<String, Object>());
+                }
+                boolean partial = !skipped.isEmpty() || pastDeadline(deadline);
+                int payloadBytes = 0;
+                for (Map.Entry<Long, Map<String, Map<String, Object>>> message : messages.entrySet()) {
+                    for (Map.Entry<String, Map<String, Object>> group : message.getValue().entrySet()) {
+                        if (shedDerivedFields) {
+                            throttle.recordShedDerivedFields(plan.getDerivedFields().size());
+                        } else {
+                            applyDerivedFields(plan, group.getKey(), group.getValue());
+                        }
+                        Map<String, Object> header = createEvent(plan, message.getKey());
+                        emissionMode.describe(header, group.getKey());
+                        if (partial) {
+                            header.put("_jmx_partial", true);
+                            if (!skipped.isEmpty()) {
+                                header.put("_jmx_skipped", Joiner.on(',').join(skipped));
+                            }
+                        }
+                        payloadBytes += publish(eventMapper, header, group.getValue());
+                    }
+                }
+                statistics.recordSuccess(elapsedMillis(start), matchedMBeans, payloadBytes, partial);
+            } else {
+                LOGGER.debug("Cannot get connection for server " + server);
+                statistics.recordFailure(elapsedMillis(start), "Cannot get connection");
+            }
+
+        } catch (Exception e) {
+            LOGGER.error("Exception while querying " + server.getHost(), e);
+            statistics.recordFailure(elapsedMillis(start), String.valueOf(e));
+        }
+    }
+
+    /**
+     * Runs the query as a {@link ConnectionRegistry.SharedConnection#call call} on the
+     * connection, bounded by the deadline of the poll. The values of the MBeans
+     * fetched completely until the deadline are returned and the query is marked as
+     * {@link #cutOff cut off}.
+     *
+     * While the connection is shared with other inputs, a complete result another
+     * input fetched within 90% of the query interval is used instead. Its epoch is the
+     * time of the poll that fetched it, other batches get the time of this poll.
+     *
+     * @return null if the deadline passed before any MBean was fetched
+     */
+    private ResultBatch processQuery(final MBeanServerConnection connection, final CompiledQuery query,
+                                     long pollMillis, final long deadline) throws Exception {
+        cutOff = false;
+        // sliced queries continue where this task's processor stopped, so they can't be shared
+        boolean shared = query.getMaxPerCycle() == 0 && sharedConnection.isShared();
+        if (shared) {
+            ResultBatch recent = sharedConnection.recentResult(query.getFetchKey(),
+                    query.getIntervalMillis(intervalMillis) * 9 / 10);
+            if (recent != null) {
+                return recent;
+            }
+        }
+        if (batch == null) {
+            batch = new ResultBatch(queryProcessor.getSeriesTable());
+        }
+        final ResultBatch results = batch;
+        results.clear(pollMillis);
+        try {
+            sharedConnection.call(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    queryProcessor.processQuery(connection, query.getQuery(), query.getObjectName(),
+                            query.getFilter(), query.getAttributes(), query.getMaxPerCycle(), query.getKey(), deadline,
+                            results);
+                    return null;
+                }
+            }, deadline);
+            if (shared) {
+                sharedConnection.putResult(query.getFetchKey(), results);
+            }
+            return results;
+        } catch (TimeoutException e) {
+            // the call may still add to the batch, the next query gets a new one
+            batch = null;
+            ResultBatch partial = results.copy();
+            cutOff = true;
+            return partial.getMBeanCount() == 0 ? null : partial;
+        }
+    }
+
+    /**
+     * Maps the values of the batch to the fields of their groups. The values of
+     * an MBean are adjacent in the batch, so the group is only looked up once per MBean.
+     * Groups created meanwhile start with the static fields of the group.
+     *
+     * @return the estimated payload size of the mapped fields
+     */
+    private int mapBatch(EventMapper eventMapper, Map<String, Map<String, Object>> groups,
+                         Map<String, Map<String, Object>> staticGroups, CompiledQuery query, ResultBatch results) {
+        SeriesTable seriesTable = results.getSeriesTable();
+        ObjectName objectName = null;
+        Map<String, Object> fields = null;
+        int payloadBytes = 0;
+        for (int i = 0; i < results.size(); i++) {
+            int series = results.getSeries(i);
+            ObjectName name = seriesTable.getObjectName(series);
+            if (name == null) {
+                // the MBean was removed meanwhile
+                continue;
+            }
+            if (name != objectName) {
+                objectName = name;
+                fields = group(groups, staticGroups, query, objectName);
+            }
+            payloadBytes += eventMapper.processValue(fields, query, objectName, seriesTable.getAttributeName(series),
+                    seriesTable.getKey(series), results.getValue(i), fieldGuard, labels);
+        }
+        return payloadBytes;
+    }
+
+    private void applyDerivedFields(QueryPlan plan, String group, Map<String, Object> fields) {
+        if (plan.getDerivedFields().isEmpty()) {
+            return;
+        }
+        Map<String, Double> previous = derivedValues.get(group);
+        if (previous == null) {
+            previous = new HashMap<>();
+            derivedValues.put(group, previous);
+        }
+        for (DerivedField derivedField : plan.getDerivedFields()) {
+            derivedField.apply(fields, previous);
+        }
+    }
+
+    private Map<String, Object> group(Map<String, Map<String, Object>> groups,
+                                      Map<String, Map<String, Object>> staticGroups, CompiledQuery query,
+                                      ObjectName objectName) {
+        String key = emissionMode.group(query, objectName);
+        Map<String, Object> fields = groups.get(key);
+        if (fields == null) {
+            Map<String, Object> staticFields = staticGroups.get(key);
+            fields = staticFields != null ? new HashMap<>(staticFields) : new HashMap<String, Object>();
+            groups.put(key, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * The fields of the static attributes by message group. The values are fetched
+     * like the other queries, but once per connection and plan. If the deadline
+     * passes first, the poll goes on without static fields; they are fetched again
+     * on the next poll. The values are mapped on every poll, so that the field guard
+     * sees their fields in use as long as they are published.
+     */
+    private Map<String, Map<String, Object>> getStaticFields(final MBeanServerConnection connection,
+                                                             QueryPlan plan, long deadline) throws Exception {
+        if (staticResults == null || staticResultsPlan != plan) {
+            Map<CompiledQuery, HashMultimap<ObjectName, Result>> fetched = new LinkedHashMap<>();
+            for (final CompiledQuery query : plan.getQueries()) {
+                if (query.getStaticAttributes().length == 0) {
+                    continue;
+                }
+                HashMultimap<ObjectName, Result> results;
+                try {
+                    results = sharedConnection.call(new Callable<HashMultimap<ObjectName, Result>>() {
+                        @Override
+                        public HashMultimap<ObjectName, Result> call() throws Exception {
+                            return queryProcessor.processQuery(connection, query.getQuery(),
+                                    query.getObjectName(), query.getFilter(), query.getStaticAttributes());
+                        }
+                    }, deadline);
+                } catch (TimeoutException e) {
+                    LOGGER.warn("Static attributes of query " + query.getKey() + " on " + server
+                            + " exceeded the poll deadline");
+                    return Collections.emptyMap();
+                }
+                fetched.put(query, results);
+            }
+            staticResults = fetched;
+            staticResultsPlan = plan;
+        }
+        Map<String, Map<String, Object>> fields = new LinkedHashMap<>();
+        Map<String, Map<String, Object>> noStaticFields = Collections.emptyMap();
+        for (Map.Entry<CompiledQuery, HashMultimap<ObjectName, Result>> results : staticResults.entrySet()) {
+            CompiledQuery query = results.getKey();
+            for (Map.Entry<ObjectName, Result> entry : results.getValue().entries()) {
+                plan.getEventMapper().processResult(group(fields, noStaticFields, query, entry.getKey()), query,
+                        entry.getKey(), entry.getValue(), fieldGuard);
+            }
+        }
+        return fields;
+    }
+
+    private long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param fetchedMillis start of the poll that fetched the values, the time of the message even
+     *                     when it is published late from the spool
+     */
+    private Map<String, Object> createEvent(QueryPlan plan, long fetchedMillis) {
+        Map<String, Object> eventData = Maps.newHashMap();
+        eventData.put("version", "1.1");
+        eventData.put("timestamp", fetchedMillis / 1000.0);
+        eventData.put("_object", plan.getType());
+        eventData.put("host", server.getHost());
+        // tells apart the JVMs of one host
+        eventData.put("_jmx_port", server.getPort());
+        eventData.put("_label", label);
+        //graylog needs a short_message as part of every event
+        eventData.put("short_message", "JMX");
+        return eventData;
+    }
+
+    /**
+     * Publishes the fields with the header fields, split into several messages
+     * with the same header if the payload exceeds the maximum message size.
+     *
+     * @return the number of bytes published
+     */
+    private int publish(EventMapper eventMapper, Map<String, Object> header,
+                        Map<String, Object> fields) throws IOException {
+        Map<String, Object> event = new HashMap<>(header);
+        event.putAll(fields);
+        byte[] payload = eventMapper.serialize(event);
+        if (maxMessageBytes > 0 && payload.length > maxMessageBytes && fields.size() > 1) {
+            // halve in name order, so that fields of one MBean tend to stay together
+            Map<String, Object> first = new HashMap<>();
+            Map<String, Object> second = new HashMap<>();
+            for (Map.Entry<String, Object> field : new TreeMap<>(fields).entrySet()) {
+                (first.size() < fields.size() / 2 ? first : second).put(field.getKey(), field.getValue());
+            }
+            return publish(eventMapper, header, first) + publish(eventMapper, header, second);
+        }
+        if (!throttle.tryAcquire(payload.length)) {
+            return 0;
+        }
+        publisher.publish(payload);
+        return payload.length;
+    }
+
+    private MBeanServerConnection getConnection() {
+        synchronized (connectLock) {
+            MBeanServerConnection current = sharedConnection.get();
+            if (current != null && current == connection) {
+                try {
+                    current.getMBeanCount();
+                    return current;
+                } catch (IOException e) {
+                    //Connection not proper. So get a new connection
+                    LOGGER.debug("Connection not alive for server " + server, e);
+                    sharedConnection.invalidate(current);
+                    current = sharedConnection.get();
+                }
+            }
+            if (current != connection) {
+                connection = current;
+                staticResults = null;
+                emptyMatches.clear();
+                derivedValues.clear();
+            }
+            return current;
+        }
+    }
+
+    private static boolean pastDeadline(long deadline) {
+        return deadline != 0 && System.nanoTime() - deadline >= 0;
+    }
+}
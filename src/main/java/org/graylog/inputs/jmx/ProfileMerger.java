@@ -0,0 +1,171 @@
+package org.graylog.inputs.jmx;
+
+import org.graylog.inputs.jmx.model.GLAttribute;
+import org.graylog.inputs.jmx.model.GLDerivedField;
+import org.graylog.inputs.jmx.model.GLQuery;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Merges the query configs of several profiles, e.g. jvm.json and tomcat.json,
+ * into one. Queries on the same ObjectName pattern with the same filter,
+ * interval and slicing are combined into one query fetching the union of their
+ * attributes, so an MBean covered by several profiles is fetched once per poll.
+ */
+final class ProfileMerger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfileMerger.class);
+
+    private ProfileMerger() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a query has a malformed object name
+     */
+    static GLQueryConfig merge(List<GLQueryConfig> profiles) {
+        if (profiles.size() == 1) {
+            return profiles.get(0);
+        }
+        Set<String> types = new LinkedHashSet<>();
+        Map<String, GLQuery> queries = new LinkedHashMap<>();
+        Map<String, GLDerivedField> derived = new LinkedHashMap<>();
+        for (GLQueryConfig profile : profiles) {
+            if (profile.getType() != null) {
+                types.add(profile.getType());
+            }
+            if (profile.getQueries() != null) {
+                for (GLQuery query : profile.getQueries()) {
+                    String key = key(query);
+                    GLQuery merged = queries.get(key);
+                    if (merged == null) {
+                        queries.put(key, copy(query));
+                    } else {
+                        mergeInto(merged, query);
+                    }
+                }
+            }
+            if (profile.getDerived() != null) {
+                for (GLDerivedField field : profile.getDerived()) {
+                    // the first profile defining a derived field wins
+                    GLDerivedField existing = derived.get(field.getLabel());
+                    if (existing == null) {
+                        derived.put(field.getLabel(), field);
+                    } else if (!Objects.equals(existing.getExpression(), field.getExpression())
+                            || !Objects.equals(existing.getEmitWhen(), field.getEmitWhen())) {
+                        LOGGER.warn("Conflicting definitions of derived field " + field.getLabel()
+                                + " in merged profiles: keeping " + definition(existing) + ", ignoring "
+                                + definition(field));
+                    }
+                }
+            }
+        }
+        GLQueryConfig merged = new GLQueryConfig();
+        merged.setType(joinTypes(types));
+        merged.setQueries(new ArrayList<>(queries.values()));
+        merged.setDerived(new ArrayList<>(derived.values()));
+        return merged;
+    }
+
+    private static String key(GLQuery query) {
+        String object = query.getObject();
+        if (object == null) {
+            throw new IllegalArgumentException("Query without object name");
+        }
+        try {
+            object = new ObjectName(object).getCanonicalName();
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException("Invalid object name " + object, e);
+        }
+        return object + '|' + query.getFilter() + '|' + query.getInterval() + '|' + query.getMaxPerCycle();
+    }
+
+    private static GLQuery copy(GLQuery query) {
+        GLQuery copy = new GLQuery();
+        copy.setObject(query.getObject());
+        copy.setFilter(query.getFilter());
+        copy.setInterval(query.getInterval());
+        copy.setMaxPerCycle(query.getMaxPerCycle());
+        copy.setMaxFields(query.getMaxFields());
+        copy.setPriority(query.getPriority());
+        copy.setAttributes(query.getAttributes() == null
+                ? new ArrayList<GLAttribute>() : new ArrayList<>(query.getAttributes()));
+        return copy;
+    }
+
+    /**
+     * Adds the attributes the merged query doesn't have yet. The merged query
+     * keeps the higher priority and field limit of both. An attribute projection
+     * labelled differently by two profiles keeps the label of the first one.
+     */
+    private static void mergeInto(GLQuery merged, GLQuery query) {
+        if (query.getAttributes() != null) {
+            for (GLAttribute attribute : query.getAttributes()) {
+                GLAttribute existing = find(merged.getAttributes(), attribute);
+                if (existing == null) {
+                    merged.getAttributes().add(attribute);
+                } else if (!Objects.equals(existing.getLabel(), attribute.getLabel())
+                        || existing.isStatic() != attribute.isStatic()) {
+                    LOGGER.warn("Conflicting definitions of attribute " + projection(attribute) + " of "
+                            + merged.getObject() + " in merged profiles: keeping label " + existing.getLabel()
+                            + (existing.isStatic() ? " (static)" : "") + ", ignoring label " + attribute.getLabel()
+                            + (attribute.isStatic() ? " (static)" : ""));
+                }
+            }
+        }
+        merged.setPriority(max(merged.getPriority(), query.getPriority()));
+        merged.setMaxFields(merged.getMaxFields() == null || query.getMaxFields() == null
+                ? null : max(merged.getMaxFields(), query.getMaxFields()));
+    }
+
+    /**
+     * Returns the attribute projecting the same attribute and composite key, which
+     * can only carry one label in the compiled query.
+     */
+    private static GLAttribute find(List<GLAttribute> attributes, GLAttribute attribute) {
+        for (GLAttribute existing : attributes) {
+            if (Objects.equals(existing.getName(), attribute.getName())
+                    && Objects.equals(existing.getKey(), attribute.getKey())) {
+                return existing;
+            }
+        }
+        return null;
+    }
+
+    private static String projection(GLAttribute attribute) {
+        return attribute.getKey() == null ? attribute.getName() : attribute.getName() + "." + attribute.getKey();
+    }
+
+    private static String definition(GLDerivedField field) {
+        return field.getEmitWhen() == null
+                ? field.getExpression() : field.getExpression() + " (emitWhen " + field.getEmitWhen() + ")";
+    }
+
+    private static Integer max(Integer a, Integer b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null ? a : Math.max(a, b);
+    }
+
+    private static String joinTypes(Set<String> types) {
+        StringBuilder joined = new StringBuilder();
+        for (String type : types) {
+            if (joined.length() > 0) {
+                joined.append(',');
+            }
+            joined.append(type);
+        }
+        return joined.toString();
+    }
+}
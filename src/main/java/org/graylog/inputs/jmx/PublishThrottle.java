@@ -0,0 +1,138 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Counter;
+
+/**
+ * Token buckets limiting the messages and bytes per second an input hands over
+ * to Graylog. Shared by all poll tasks of an input. The buckets hold one
+ * polling interval worth of tokens, so the burst of a poll round fits.
+ * <p>
+ * Besides rejecting messages the buckets can't afford, the throttle tells the
+ * poll tasks what to shed before polling: the emptier the buckets, the more of
+ * the lowest levels are skipped. The derived fields of the plan are the lowest
+ * level and are shed first, then the queries of the lowest priorities. Queries of
+ * the highest priority are never shed, only their messages can be rejected.
+ */
+class PublishThrottle {
+
+    private final Bucket messages;
+    private final Bucket bytes;
+    private final Counter shedMessages;
+    private final Counter shedBytes;
+    private final Counter shedQueries;
+    private final Counter shedDerivedFields;
+
+    /**
+     * @param messagesPerSecond 0 for no message limit
+     * @param bytesPerSecond    0 for no byte limit
+     */
+    PublishThrottle(double messagesPerSecond, double bytesPerSecond, long intervalMillis,
+                    Counter shedMessages, Counter shedBytes, Counter shedQueries, Counter shedDerivedFields) {
+        double burstSeconds = Math.max(1, intervalMillis / 1000.0);
+        this.messages = messagesPerSecond > 0 ? new Bucket(messagesPerSecond, burstSeconds) : null;
+        this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond, burstSeconds) : null;
+        this.shedMessages = shedMessages;
+        this.shedBytes = shedBytes;
+        this.shedQueries = shedQueries;
+        this.shedDerivedFields = shedDerivedFields;
+    }
+
+    /**
+     * Takes the tokens of one message of the given size, or counts it as shed if
+     * either bucket can't afford it.
+     */
+    synchronized boolean tryAcquire(int payloadBytes) {
+        long now = System.nanoTime();
+        if ((messages != null && !messages.available(1, now)) || (bytes != null && !bytes.available(payloadBytes, now))) {
+            shedMessages.inc();
+            shedBytes.inc(payloadBytes);
+            return false;
+        }
+        if (messages != null) {
+            messages.take(1);
+        }
+        if (bytes != null) {
+            bytes.take(payloadBytes);
+        }
+        return true;
+    }
+
+    /**
+     * The lowest query priority to poll at the current bucket levels.
+     */
+    int minPriority(QueryPlan plan) {
+        int shedPriorities = shedLevels(plan) - (plan.getDerivedFields().isEmpty() ? 0 : 1);
+        return plan.getPriorities()[Math.max(0, shedPriorities)];
+    }
+
+    /**
+     * Whether the derived fields are skipped at the current bucket levels, which
+     * happens before any query is shed.
+     */
+    boolean shedsDerivedFields(QueryPlan plan) {
+        return !plan.getDerivedFields().isEmpty() && shedLevels(plan) > 0;
+    }
+
+    /**
+     * Of the n levels of the plan, the derived fields if any and its distinct query
+     * priorities, the lowest (1 - fill) * n are shed, but never the highest priority.
+     */
+    private int shedLevels(QueryPlan plan) {
+        int levels = plan.getPriorities().length + (plan.getDerivedFields().isEmpty() ? 0 : 1);
+        return Math.max(0, Math.min(levels - 1, (int) ((1 - fill()) * levels)));
+    }
+
+    void recordShedQuery() {
+        shedQueries.inc();
+    }
+
+    void recordShedDerivedFields(int count) {
+        shedDerivedFields.inc(count);
+    }
+
+    private synchronized double fill() {
+        long now = System.nanoTime();
+        double fill = 1;
+        if (messages != null) {
+            fill = Math.min(fill, messages.fill(now));
+        }
+        if (bytes != null) {
+            fill = Math.min(fill, bytes.fill(now));
+        }
+        return fill;
+    }
+
+    private static class Bucket {
+        private final double ratePerNano;
+        private final double capacity;
+        private double tokens;
+        private long refilledAt;
+
+        private Bucket(double ratePerSecond, double burstSeconds) {
+            this.ratePerNano = ratePerSecond / 1e9;
+            this.capacity = ratePerSecond * burstSeconds;
+            this.tokens = capacity;
+            this.refilledAt = System.nanoTime();
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerNano);
+            refilledAt = now;
+        }
+
+        private boolean available(double amount, long now) {
+            refill(now);
+            // a message larger than the bucket goes through when the bucket is full
+            return tokens >= Math.min(amount, capacity);
+        }
+
+        private void take(double amount) {
+            tokens -= amount;
+        }
+
+        private double fill(long now) {
+            refill(now);
+            return Math.max(0, tokens) / capacity;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package org.graylog.inputs.jmx;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.Query;
+import javax.management.QueryExp;
+import javax.management.ValueExp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the filter expression of a query to a JMX QueryExp, which is
+ * evaluated by the remote MBean server before any attribute data is sent, e.g.
+ * <pre>
+ *   key.topic like 'orders-*' and not (Count = 0 or Value &lt; 1.5)
+ * </pre>
+ * Operands are attribute names, numbers, booleans and quoted strings. key.&lt;prop&gt;
+ * refers to a key property of the ObjectName and only supports = and like,
+ * the value may be unquoted and contain the ObjectName wildcards * and ?. Attributes support
+ * =, !=, &lt;, &lt;=, &gt;, &gt;= and like with a quoted wildcard pattern.
+ */
+public final class QueryFilter {
+
+    private static final String KEY_PREFIX = "key.";
+
+    private final String expression;
+    private final List<String> tokens;
+    private int position;
+
+    private QueryFilter(String expression) {
+        this.expression = expression;
+        this.tokens = tokenize(expression);
+    }
+
+    public static QueryExp compile(String expression) {
+        QueryFilter filter = new QueryFilter(expression);
+        if (filter.tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty filter");
+        }
+        QueryExp queryExp = filter.parseOr();
+        if (filter.position < filter.tokens.size()) {
+            throw filter.error("Unexpected '" + filter.tokens.get(filter.position) + "'");
+        }
+        return queryExp;
+    }
+
+    private QueryExp parseOr() {
+        QueryExp exp = parseAnd();
+        while (acceptKeyword("or")) {
+            exp = Query.or(exp, parseAnd());
+        }
+        return exp;
+    }
+
+    private QueryExp parseAnd() {
+        QueryExp exp = parseNot();
+        while (acceptKeyword("and")) {
+            exp = Query.and(exp, parseNot());
+        }
+        return exp;
+    }
+
+    private QueryExp parseNot() {
+        if (acceptKeyword("not")) {
+            return Query.not(parseNot());
+        }
+        if (accept("(")) {
+            QueryExp exp = parseOr();
+            expect(")");
+            return exp;
+        }
+        return parseComparison();
+    }
+
+    private QueryExp parseComparison() {
+        String left = next("operand");
+        if (isLiteral(left)) {
+            throw error("Expected attribute or key property but found " + left);
+        }
+        String operator = next("operator");
+        String right = next("value");
+
+        if (left.startsWith(KEY_PREFIX)) {
+            String property = left.substring(KEY_PREFIX.length());
+            if (!"=".equals(operator) && !"like".equalsIgnoreCase(operator)) {
+                throw error("Key property " + property + " only supports = and like");
+            }
+            try {
+                String value = isQuoted(right) ? unquote(right) : right;
+                return new ObjectName("*:" + property + "=" + value + ",*");
+            } catch (MalformedObjectNameException e) {
+                throw error("Invalid key property match " + left + " " + operator + " " + right);
+            }
+        }
+
+        if (!isLiteral(right)) {
+            throw error("Expected value but found " + right);
+        }
+        if ("like".equalsIgnoreCase(operator)) {
+            if (!isQuoted(right)) {
+                throw error("like requires a quoted pattern");
+            }
+            return Query.match(Query.attr(left), Query.value(unquote(right)));
+        }
+        ValueExp value = value(right);
+        switch (operator) {
+            case "=":
+                return Query.eq(Query.attr(left), value);
+            case "!=":
+                return Query.not(Query.eq(Query.attr(left), value));
+            case "<":
+                return Query.lt(Query.attr(left), value);
+            case "<=":
+                return Query.leq(Query.attr(left), value);
+            case ">":
+                return Query.gt(Query.attr(left), value);
+            case ">=":
+                return Query.geq(Query.attr(left), value);
+            default:
+                throw error("Unknown operator " + operator);
+        }
+    }
+
+    private ValueExp value(String token) {
+        if (isQuoted(token)) {
+            return Query.value(unquote(token));
+        }
+        if ("true".equalsIgnoreCase(token) || "false".equalsIgnoreCase(token)) {
+            return Query.value(Boolean.parseBoolean(token));
+        }
+        try {
+            if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0) {
+                return Query.value(Double.parseDouble(token));
+            }
+            return Query.value(Long.parseLong(token));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + token);
+        }
+    }
+
+    private static boolean isLiteral(String token) {
+        char first = token.charAt(0);
+        return isQuoted(token) || first == '-' || Character.isDigit(first)
+                || "true".equalsIgnoreCase(token) || "false".equalsIgnoreCase(token);
+    }
+
+    private static boolean isQuoted(String token) {
+        return token.charAt(0) == '\'' || token.charAt(0) == '"';
+    }
+
+    private static String unquote(String token) {
+        return token.substring(1, token.length() - 1);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (position < tokens.size() && keyword.equalsIgnoreCase(tokens.get(position))) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(String token) {
+        if (position < tokens.size() && token.equals(tokens.get(position))) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token) {
+        if (!accept(token)) {
+            throw error("Expected '" + token + "'");
+        }
+    }
+
+    private String next(String expected) {
+        if (position >= tokens.size()) {
+            throw error("Expected " + expected + " at end of filter");
+        }
+        return tokens.get(position++);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " in filter " + expression);
+    }
+
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '\'' || c == '"') {
+                int close = expression.indexOf(c, i + 1);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unterminated string in filter " + expression);
+                }
+                tokens.add(expression.substring(i, close + 1));
+                i = close + 1;
+            } else if (c == '=' || c == '!' || c == '<' || c == '>') {
+                int end = i + 1;
+                if (end < expression.length() && expression.charAt(end) == '=') {
+                    end++;
+                }
+                String operator = expression.substring(i, end);
+                if ("!".equals(operator)) {
+                    throw new IllegalArgumentException("Invalid operator ! in filter " + expression);
+                }
+                tokens.add(operator);
+                i = end;
+            } else {
+                int end = i;
+                while (end < expression.length() && isWordChar(expression.charAt(end))) {
+                    end++;
+                }
+                if (end == i) {
+                    throw new IllegalArgumentException("Unexpected '" + c + "' in filter " + expression);
+                }
+                tokens.add(expression.substring(i, end));
+                i = end;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-' || c == '+' || c == '*' || c == '?';
+    }
+}
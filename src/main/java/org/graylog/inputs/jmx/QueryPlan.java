@@ -0,0 +1,102 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import org.graylog.inputs.jmx.model.GLDerivedField;
+import org.graylog.inputs.jmx.model.GLQuery;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * A query config compiled into validated queries. Immutable, so a single plan
+ * is shared by all poll tasks of an input and replaced as a whole on reload.
+ */
+public class QueryPlan {
+
+    private final String type;
+    private final ImmutableList<CompiledQuery> queries;
+    private final ImmutableList<DerivedField> derivedFields;
+    private final EventMapper eventMapper;
+    private final int[] priorities;
+
+    private QueryPlan(String type, ImmutableList<CompiledQuery> queries, ImmutableList<DerivedField> derivedFields) {
+        this.type = type;
+        this.queries = queries;
+        this.derivedFields = derivedFields;
+        this.eventMapper = new EventMapper();
+        SortedSet<Integer> priorities = new TreeSet<>();
+        for (CompiledQuery query : queries) {
+            priorities.add(query.getPriority());
+        }
+        this.priorities = Ints.toArray(priorities);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the config contains a malformed object name, label or expression
+     */
+    public static QueryPlan compile(GLQueryConfig queryConfig) {
+        if (queryConfig.getQueries() == null || queryConfig.getQueries().isEmpty()) {
+            throw new IllegalArgumentException("No queries configured");
+        }
+        ImmutableList.Builder<CompiledQuery> queries = ImmutableList.builder();
+        for (GLQuery glQuery : queryConfig.getQueries()) {
+            queries.add(CompiledQuery.compile(glQuery));
+        }
+        ImmutableList.Builder<DerivedField> derivedFields = ImmutableList.builder();
+        if (queryConfig.getDerived() != null) {
+            for (GLDerivedField derived : queryConfig.getDerived()) {
+                derivedFields.add(DerivedField.compile(derived));
+            }
+        }
+        return new QueryPlan(queryConfig.getType(), queries.build(), derivedFields.build());
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public ImmutableList<CompiledQuery> getQueries() {
+        return queries;
+    }
+
+    /**
+     * The derived fields in evaluation order.
+     */
+    ImmutableList<DerivedField> getDerivedFields() {
+        return derivedFields;
+    }
+
+    /**
+     * The period poll tasks have to run at so that every query can be polled at
+     * its own interval, i.e. the greatest common divisor of all intervals.
+     */
+    public long getTickMillis(long inputIntervalMillis) {
+        long tick = inputIntervalMillis;
+        for (CompiledQuery query : queries) {
+            tick = gcd(tick, query.getIntervalMillis(inputIntervalMillis));
+        }
+        return tick;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = b;
+            b = a % b;
+            a = t;
+        }
+        return a;
+    }
+
+    /**
+     * The distinct priorities of the queries in ascending order. Shared array, must not be modified.
+     */
+    public int[] getPriorities() {
+        return priorities;
+    }
+
+    public EventMapper getEventMapper() {
+        return eventMapper;
+    }
+}
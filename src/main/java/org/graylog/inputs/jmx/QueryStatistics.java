@@ -0,0 +1,161 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics of one configured query against one JMX target.
+ */
+@JsonPropertyOrder(value = {"inputId", "host", "url", "object", "lastLatencyMillis", "p99LatencyMillis", "matchedMBeans",
+        "results", "payloadBytes", "errorStreak", "emptySince", "recheckMillis", "skipped", "shed"})
+public class QueryStatistics {
+
+    private final String inputId;
+    private final String host;
+    private final String url;
+    private final String object;
+    private final Histogram latency = new Histogram(new SlidingWindowReservoir(HostStatistics.LATENCY_WINDOW));
+    private volatile long lastLatencyMillis = -1;
+    private volatile int matchedMBeans;
+    private volatile int results;
+    private volatile int payloadBytes;
+    private volatile int errorStreak;
+    private volatile long emptySince;
+    private volatile long recheckMillis;
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+
+    public QueryStatistics(String inputId, String host, String url, String object) {
+        this.inputId = inputId;
+        this.host = host;
+        this.url = url;
+        this.object = object;
+    }
+
+    /**
+     * @param complete false if the query was cut off by the poll deadline
+     */
+    void record(long latencyMillis, int matchedMBeans, int results, int payloadBytes, boolean complete) {
+        this.latency.update(latencyMillis);
+        this.lastLatencyMillis = latencyMillis;
+        this.matchedMBeans = matchedMBeans;
+        this.results = results;
+        this.payloadBytes = payloadBytes;
+        this.errorStreak = complete ? 0 : errorStreak + 1;
+    }
+
+    /**
+     * Records a failed or cut off run of the query that returned no results.
+     */
+    void recordFailure() {
+        errorStreak++;
+    }
+
+    void recordSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void recordShed() {
+        shed.incrementAndGet();
+    }
+
+    void setEmptyMatch(long emptySince, long recheckMillis) {
+        this.emptySince = emptySince;
+        this.recheckMillis = recheckMillis;
+    }
+
+    @JsonProperty
+    public String getInputId() {
+        return inputId;
+    }
+
+    @JsonProperty
+    public String getHost() {
+        return host;
+    }
+
+    @JsonProperty
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * The pattern of the query, with the filter, interval and slicing that tell it apart from other queries on it.
+     */
+    @JsonProperty
+    public String getObject() {
+        return object;
+    }
+
+    @JsonProperty
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    @JsonProperty
+    public double getP99LatencyMillis() {
+        return latency.getSnapshot().get99thPercentile();
+    }
+
+    @JsonProperty
+    public int getMatchedMBeans() {
+        return matchedMBeans;
+    }
+
+    @JsonProperty
+    public int getResults() {
+        return results;
+    }
+
+    /**
+     * Estimated size of the fields the query added to the messages of its last run.
+     */
+    @JsonProperty
+    public int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * Number of consecutive runs of the query that failed or were cut off by the poll deadline.
+     */
+    @JsonProperty
+    public int getErrorStreak() {
+        return errorStreak;
+    }
+
+    /**
+     * Time the pattern was first seen matching no MBean, 0 if it matches.
+     */
+    @JsonProperty
+    public long getEmptySince() {
+        return emptySince;
+    }
+
+    /**
+     * Period after which an empty pattern is checked again.
+     */
+    @JsonProperty
+    public long getRecheckMillis() {
+        return recheckMillis;
+    }
+
+    /**
+     * Number of polls that skipped the query because the poll deadline had passed.
+     */
+    @JsonProperty
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Number of polls that shed the query because the input was rate limited.
+     */
+    @JsonProperty
+    public long getShed() {
+        return shed.get();
+    }
+}
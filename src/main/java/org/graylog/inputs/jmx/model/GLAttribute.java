@@ -5,6 +5,7 @@ package org.graylog.inputs.jmx.model;
  */
 public class GLAttribute {
     String name,key,label;
+    boolean staticAttribute;
 
     public String getName() {
         return name;
@@ -29,4 +30,16 @@ public class GLAttribute {
     public void setLabel(String label) {
         this.label = label;
     }
+
+    /**
+     * Whether the value never changes for the life of the monitored JVM, e.g.
+     * the max heap size. Static values are fetched once per connection.
+     */
+    public boolean isStatic() {
+        return staticAttribute;
+    }
+
+    public void setStatic(boolean staticAttribute) {
+        this.staticAttribute = staticAttribute;
+    }
 }
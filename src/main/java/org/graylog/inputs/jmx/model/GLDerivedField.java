@@ -0,0 +1,40 @@
+package org.graylog.inputs.jmx.model;
+
+/**
+ * A field computed from the other fields of a message, e.g.
+ * <pre>
+ *   {"label": "heap.usage", "expression": "heap.used / heap.committed", "emitWhen": "value &gt; 0.9"}
+ * </pre>
+ */
+public class GLDerivedField {
+    private String label;
+    private String expression;
+    private String emitWhen;
+
+    public String getLabel() {
+        return label;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public void setExpression(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Condition on the computed value and the previous one, null to always emit the field.
+     */
+    public String getEmitWhen() {
+        return emitWhen;
+    }
+
+    public void setEmitWhen(String emitWhen) {
+        this.emitWhen = emitWhen;
+    }
+}
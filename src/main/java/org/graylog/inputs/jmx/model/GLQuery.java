@@ -8,6 +8,11 @@ import java.util.List;
 public class GLQuery {
     String object;
     List<GLAttribute> attributes;
+    Integer interval;
+    String filter;
+    Integer maxPerCycle;
+    Integer maxFields;
+    Integer priority;
 
     public String getObject() {
         return object;
@@ -24,4 +29,59 @@ public class GLQuery {
     public void setAttributes(List<GLAttribute> attributes) {
         this.attributes = attributes;
     }
+
+    /**
+     * Polling interval of this query in seconds, null to poll at the interval of the input.
+     */
+    public Integer getInterval() {
+        return interval;
+    }
+
+    public void setInterval(Integer interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Filter expression evaluated by the remote MBean server, null to fetch all matched MBeans.
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Maximum number of matched MBeans to fetch per poll, null to fetch all of them.
+     */
+    public Integer getMaxPerCycle() {
+        return maxPerCycle;
+    }
+
+    public void setMaxPerCycle(Integer maxPerCycle) {
+        this.maxPerCycle = maxPerCycle;
+    }
+
+    /**
+     * Maximum number of distinct fields rendered from the labels of this query, null for no limit.
+     */
+    public Integer getMaxFields() {
+        return maxFields;
+    }
+
+    public void setMaxFields(Integer maxFields) {
+        this.maxFields = maxFields;
+    }
+
+    /**
+     * Queries of lower priority are shed first when the input is rate limited, null for priority 0.
+     */
+    public Integer getPriority() {
+        return priority;
+    }
+
+    public void setPriority(Integer priority) {
+        this.priority = priority;
+    }
 }
@@ -10,6 +10,7 @@ import java.util.List;
 public class GLQueryConfig {
     private String type;
     private List<GLQuery> queries;
+    private List<GLDerivedField> derived;
 
     public String getType() {
         return type;
@@ -26,4 +27,16 @@ public class GLQueryConfig {
     public void setQueries(List<GLQuery> queries) {
         this.queries = queries;
     }
+
+    /**
+     * Fields computed from the fields of each message, in order, so a derived
+     * field can use the ones before it.
+     */
+    public List<GLDerivedField> getDerived() {
+        return derived;
+    }
+
+    public void setDerived(List<GLDerivedField> derived) {
+        this.derived = derived;
+    }
 }
@@ -0,0 +1,49 @@
+package org.graylog.inputs.jmx;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EmptyMatchBackoffTest {
+
+    private static final long INTERVAL = 10000;
+
+    @Test
+    public void doublesTheBackoffOfEmptyMatches() {
+        EmptyMatchBackoff backoff = new EmptyMatchBackoff();
+
+        assertEquals(1000, backoff.record("q", 0, INTERVAL, 1000));
+        assertEquals(2 * INTERVAL, backoff.getBackoffMillis("q"));
+        assertTrue(backoff.skip("q", 1000 + 2 * INTERVAL - 1));
+        assertFalse(backoff.skip("q", 1000 + 2 * INTERVAL));
+
+        // the first empty match is still reported
+        assertEquals(1000, backoff.record("q", 0, INTERVAL, 1000 + 2 * INTERVAL));
+        assertEquals(4 * INTERVAL, backoff.getBackoffMillis("q"));
+        assertFalse(backoff.skip("other", 1000));
+    }
+
+    @Test
+    public void capsTheBackoff() {
+        EmptyMatchBackoff backoff = new EmptyMatchBackoff();
+        for (int i = 0; i < 20; i++) {
+            backoff.record("q", 0, INTERVAL, 0);
+        }
+        assertEquals(EmptyMatchBackoff.MAX_BACKOFF_MILLIS, backoff.getBackoffMillis("q"));
+    }
+
+    @Test
+    public void aMatchOrClearResetsTheBackoff() {
+        EmptyMatchBackoff backoff = new EmptyMatchBackoff();
+        backoff.record("q", 0, INTERVAL, 0);
+        assertEquals(0, backoff.record("q", 3, INTERVAL, 1));
+        assertFalse(backoff.skip("q", 1));
+        assertEquals(0, backoff.getBackoffMillis("q"));
+
+        backoff.record("q", 0, INTERVAL, 0);
+        backoff.clear();
+        assertFalse(backoff.skip("q", 1));
+    }
+}
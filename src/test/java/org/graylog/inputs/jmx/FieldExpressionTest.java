@@ -0,0 +1,102 @@
+package org.graylog.inputs.jmx;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldExpressionTest {
+
+    private static Map<String, Object> fields() {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("_heap.used", 300L);
+        fields.put("_heap.committed", 400L);
+        fields.put("_tomcat.http.busy", 3);
+        fields.put("_tomcat.ajp.busy", 1);
+        fields.put("_tomcat.http.max", 200);
+        fields.put("_name", "main");
+        return fields;
+    }
+
+    private static double value(String expression) {
+        return FieldExpression.compileValue(expression).evaluate(fields(), Double.NaN, Double.NaN);
+    }
+
+    @Test
+    public void evaluatesArithmeticWithPrecedence() {
+        assertEquals(75.0, value("heap.used / heap.committed * 100"), 0.0);
+        assertEquals(7.0, value("1 + 2 * 3"), 0.0);
+        assertEquals(9.0, value("(1 + 2) * 3"), 0.0);
+        assertEquals(-1.0, value("-(3 - 2)"), 0.0);
+        assertEquals(300.0, value("'heap.used'"), 0.0);
+    }
+
+    @Test
+    public void evaluatesAggregatesOverMatchingFields() {
+        assertEquals(4.0, value("sum('tomcat.*.busy')"), 0.0);
+        assertEquals(2.0, value("count('tomcat.*.busy')"), 0.0);
+        assertEquals(2.0, value("AVG('tomcat.*.busy')"), 0.0);
+        assertEquals(1.0, value("min('tomcat.???.busy')"), 0.0);
+        assertEquals(0.02, value("sum('tomcat.*.busy') / sum('tomcat.*.max')"), 1e-9);
+    }
+
+    @Test
+    public void missingOrNonNumericFieldsAreNaN() {
+        assertTrue(Double.isNaN(value("heap.max")));
+        assertTrue(Double.isNaN(value("name + 1")));
+    }
+
+    @Test
+    public void testsConditionsOnValueAndPrevious() {
+        FieldExpression.Condition condition = FieldExpression.compileCondition("value > 90 and not previous > 90");
+        assertTrue(condition.test(fields(), 95, 80));
+        assertFalse(condition.test(fields(), 95, 92));
+        assertFalse(condition.test(fields(), 85, 80));
+        // comparisons involving NaN are false
+        assertTrue(condition.test(fields(), 95, Double.NaN));
+    }
+
+    @Test
+    public void testsParenthesizedConditionsAndValues() {
+        assertTrue(FieldExpression.compileCondition("(heap.used + 100) / 2 = 200")
+                .test(fields(), Double.NaN, Double.NaN));
+        assertTrue(FieldExpression.compileCondition("(heap.used > 500 or heap.committed >= 400)")
+                .test(fields(), Double.NaN, Double.NaN));
+    }
+
+    @Test
+    public void valueIsAFieldOutsideConditions() {
+        Map<String, Object> fields = fields();
+        fields.put("_value", 21);
+        assertEquals(42.0, FieldExpression.compileValue("value * 2").evaluate(fields, 1, 1), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsComparisonsInValues() {
+        FieldExpression.compileValue("heap.used > 100");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFunctions() {
+        FieldExpression.compileValue("median('tomcat.*.busy')");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnquotedAggregatePatterns() {
+        FieldExpression.compileValue("sum(tomcat.http.busy)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyExpressions() {
+        FieldExpression.compileValue(" ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsConditionsWithoutComparison() {
+        FieldExpression.compileCondition("value + 1");
+    }
+}
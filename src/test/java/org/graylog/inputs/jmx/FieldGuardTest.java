@@ -0,0 +1,123 @@
+package org.graylog.inputs.jmx;
+
+import com.codahale.metrics.Counter;
+import org.graylog.inputs.jmx.model.GLAttribute;
+import org.graylog.inputs.jmx.model.GLQuery;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FieldGuardTest {
+
+    // fields not seen for RETENTION_POLLS polls of 1 ms are stale
+    private static final long INTERVAL_MILLIS = 1;
+
+    private final Counter dropped = new Counter();
+
+    private static GLQuery glQuery(String object, Integer maxFields) {
+        GLAttribute attribute = new GLAttribute();
+        attribute.setName("Count");
+        attribute.setLabel("{name}.count");
+        GLQuery query = new GLQuery();
+        query.setObject(object);
+        query.setAttributes(Collections.singletonList(attribute));
+        query.setMaxFields(maxFields);
+        return query;
+    }
+
+    private static CompiledQuery query(String object, Integer maxFields) {
+        return CompiledQuery.compile(glQuery(object, maxFields));
+    }
+
+    private static void waitUntilStale() throws InterruptedException {
+        Thread.sleep(FieldGuard.RETENTION_POLLS * INTERVAL_MILLIS + 20);
+    }
+
+    @Test
+    public void dropsNewFieldsOverTheQueryLimit() {
+        FieldGuard guard = new FieldGuard(0, INTERVAL_MILLIS, dropped);
+        CompiledQuery query = query("test:type=A,*", 2);
+
+        assertTrue(guard.admit(query, "_a"));
+        assertTrue(guard.admit(query, "_b"));
+        assertFalse(guard.admit(query, "_c"));
+        // known fields are still admitted
+        assertTrue(guard.admit(query, "_a"));
+        assertEquals(1, dropped.getCount());
+    }
+
+    @Test
+    public void replacesStaleFields() throws Exception {
+        FieldGuard guard = new FieldGuard(2, INTERVAL_MILLIS, dropped);
+        CompiledQuery query = query("test:type=A,*", null);
+
+        assertTrue(guard.admit(query, "_a"));
+        assertTrue(guard.admit(query, "_b"));
+        waitUntilStale();
+        assertTrue(guard.admit(query, "_b"));
+        // _a is the least recently seen and stale
+        assertTrue(guard.admit(query, "_c"));
+        // _b was seen again and is not stale
+        assertFalse(guard.admit(query, "_d"));
+        assertEquals(1, dropped.getCount());
+    }
+
+    @Test
+    public void evictsNothingForAFieldTheInputLimitDrops() throws Exception {
+        FieldGuard guard = new FieldGuard(2, INTERVAL_MILLIS, dropped);
+        CompiledQuery a = query("test:type=A,*", 1);
+        CompiledQuery b = query("test:type=B,*", null);
+
+        assertTrue(guard.admit(a, "_shared"));
+        assertTrue(guard.admit(b, "_shared"));
+        assertTrue(guard.admit(b, "_b"));
+        waitUntilStale();
+        assertTrue(guard.admit(b, "_shared"));
+        assertTrue(guard.admit(b, "_b"));
+
+        // _shared is stale for query a, but the input has no stale field to make room
+        assertFalse(guard.admit(a, "_a"));
+        // so a still has its field and doesn't need to evict it again
+        assertTrue(guard.admit(a, "_shared"));
+        assertEquals(1, dropped.getCount());
+    }
+
+    @Test
+    public void evictingTheOnlyHolderMakesRoomInTheInput() throws Exception {
+        FieldGuard guard = new FieldGuard(2, INTERVAL_MILLIS, dropped);
+        CompiledQuery a = query("test:type=A,*", 1);
+        CompiledQuery b = query("test:type=B,*", null);
+
+        assertTrue(guard.admit(a, "_a"));
+        assertTrue(guard.admit(b, "_b"));
+        waitUntilStale();
+        assertTrue(guard.admit(b, "_b"));
+
+        assertTrue(guard.admit(a, "_c"));
+        assertEquals(0, dropped.getCount());
+    }
+
+    @Test
+    public void dropsFieldsOfQueriesRemovedFromThePlan() {
+        FieldGuard guard = new FieldGuard(2, INTERVAL_MILLIS, dropped);
+        GLQuery kept = glQuery("test:type=A,*", null);
+        CompiledQuery a = CompiledQuery.compile(kept);
+        CompiledQuery b = query("test:type=B,*", null);
+
+        assertTrue(guard.admit(a, "_a"));
+        assertTrue(guard.admit(b, "_b"));
+        assertFalse(guard.admit(a, "_c"));
+
+        GLQueryConfig config = new GLQueryConfig();
+        config.setQueries(Arrays.asList(kept));
+        guard.retainQueries(QueryPlan.compile(config));
+
+        assertTrue(guard.admit(a, "_c"));
+    }
+}
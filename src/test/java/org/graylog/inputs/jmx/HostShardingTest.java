@@ -0,0 +1,56 @@
+package org.graylog.inputs.jmx;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HostShardingTest {
+
+    private static final List<String> NODES = Arrays.asList("node-a", "node-b", "node-c");
+
+    @Test
+    public void everyNodeAgreesOnTheOwner() {
+        for (int i = 0; i < 100; i++) {
+            String server = "app" + i + ":9010";
+            int local = 0;
+            for (String node : NODES) {
+                HostSharding sharding = new HostSharding(node, NODES);
+                assertEquals(new HostSharding("node-a", NODES).owner(server), sharding.owner(server));
+                if (sharding.isLocal(server)) {
+                    local++;
+                }
+            }
+            assertEquals(1, local);
+        }
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsServers() {
+        HostSharding three = new HostSharding("node-a", NODES);
+        HostSharding two = new HostSharding("node-a", Arrays.asList("node-a", "node-b"));
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            String server = "app" + i + ":9010";
+            String owner = three.owner(server);
+            if (!"node-c".equals(owner)) {
+                assertEquals(owner, two.owner(server));
+            }
+            owned.put(owner, owned.containsKey(owner) ? owned.get(owner) + 1 : 1);
+        }
+        // rendezvous hashing spreads the servers across all nodes
+        for (String node : NODES) {
+            assertTrue(owned.containsKey(node) && owned.get(node) > 50);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsALocalNodeOutsideTheShardNodes() {
+        new HostSharding("node-d", NODES);
+    }
+}
@@ -0,0 +1,97 @@
+package org.graylog.inputs.jmx;
+
+import com.googlecode.jmxtrans.model.Server;
+import org.graylog2.plugin.configuration.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class JMXTransportTest {
+
+    private JMXTransport transport;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("configPort", 9010);
+        settings.put("configUsername", "monitor");
+        settings.put("configPassword", "secret");
+        transport = new JMXTransport(new Configuration(settings), null, null, null, null);
+    }
+
+    @Test
+    public void parsesHostWithConfiguredPortAndCredentials() {
+        Server server = transport.parseServer("app1.example.com", null, null);
+        assertEquals("app1.example.com", server.getHost());
+        assertEquals("9010", server.getPort());
+        assertEquals("monitor", server.getUsername());
+        assertEquals("secret", server.getPassword());
+        assertEquals("service:jmx:rmi:///jndi/rmi://app1.example.com:9010/jmxrmi", server.getUrl());
+    }
+
+    @Test
+    public void parsesHostWithPortAndCredentials() {
+        Server server = transport.parseServer("10.0.0.1:1099", "admin", "admin-secret");
+        assertEquals("10.0.0.1", server.getHost());
+        assertEquals("1099", server.getPort());
+        assertEquals("admin", server.getUsername());
+        assertEquals("admin-secret", server.getPassword());
+    }
+
+    @Test
+    public void parsesBareAndBracketedIpv6Literals() {
+        Server bare = transport.parseServer("fe80::1", null, null);
+        assertEquals("fe80::1", bare.getHost());
+        assertEquals("9010", bare.getPort());
+        assertEquals("service:jmx:rmi:///jndi/rmi://[fe80::1]:9010/jmxrmi", bare.getUrl());
+
+        Server bracketed = transport.parseServer("[::1]:1099", null, null);
+        assertEquals("::1", bracketed.getHost());
+        assertEquals("1099", bracketed.getPort());
+
+        assertEquals("9010", transport.parseServer("[::1]", null, null).getPort());
+    }
+
+    @Test
+    public void parsesServiceUrls() {
+        String url = "service:jmx:rmi://[::1]:9011/jndi/rmi://[::1]:9010/jmxrmi";
+        Server server = transport.parseServer(url, null, null);
+        assertEquals(url, server.getUrl());
+        assertEquals("::1", server.getHost());
+        assertEquals("9010", server.getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPortOutOfRange() {
+        transport.parseServer("app1:65536", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPortZero() {
+        transport.parseServer("app1:0", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonNumericPort() {
+        transport.parseServer("app1:jmx", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingHost() {
+        transport.parseServer(":9010", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbageAfterIpv6Literal() {
+        transport.parseServer("[::1]9010", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsServiceUrlWithInvalidPort() {
+        transport.parseServer("service:jmx:rmi:///jndi/rmi://app1:99999/jmxrmi", null, null);
+    }
+}
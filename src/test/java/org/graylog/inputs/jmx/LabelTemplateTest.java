@@ -0,0 +1,60 @@
+package org.graylog.inputs.jmx;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LabelTemplateTest {
+
+    @Test
+    public void rendersKeyProperties() throws Exception {
+        LabelTemplate template = LabelTemplate.compile("jvm.gc.{name}.count");
+        ObjectName objectName = new ObjectName("java.lang:type=GarbageCollector,name=PS MarkSweep");
+
+        assertTrue(template.isDynamic());
+        assertEquals(ImmutableList.of("name"), template.getProperties());
+        assertEquals("jvm.gc.psmarksweep.count", template.render(objectName));
+        assertEquals("_jvm.gc.psmarksweep.count", template.fieldName(objectName));
+    }
+
+    @Test
+    public void keepsUnknownPlaceholders() throws Exception {
+        LabelTemplate template = LabelTemplate.compile("{type}.{pool}");
+        assertEquals("memory.{pool}", template.render(new ObjectName("java.lang:type=Memory")));
+    }
+
+    @Test
+    public void staticLabelsAreRenderedAsTheyAre() throws Exception {
+        LabelTemplate template = LabelTemplate.compile("jvm.threads");
+        ObjectName objectName = new ObjectName("java.lang:type=Threading");
+
+        assertFalse(template.isDynamic());
+        assertEquals("jvm.threads", template.render(objectName));
+        assertEquals("_jvm.threads", template.fieldName(objectName));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnclosedPlaceholders() {
+        LabelTemplate.compile("jvm.gc.{name.count");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnopenedPlaceholders() {
+        LabelTemplate.compile("jvm.gc.name}.count");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPlaceholders() {
+        LabelTemplate.compile("jvm.gc.{}.count");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNestedPlaceholders() {
+        LabelTemplate.compile("jvm.gc.{{name}}.count");
+    }
+}
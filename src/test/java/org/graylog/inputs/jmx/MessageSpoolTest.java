@@ -0,0 +1,146 @@
+package org.graylog.inputs.jmx;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageSpoolTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("message-spool", ".dat");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static byte[] payload(int length, char c) {
+        byte[] payload = new byte[length];
+        Arrays.fill(payload, (byte) c);
+        return payload;
+    }
+
+    @Test
+    public void deliversPayloadsInOrderUntilCommitted() throws Exception {
+        try (MessageSpool spool = new MessageSpool(file, 1024)) {
+            byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+            byte[] second = "second".getBytes(StandardCharsets.UTF_8);
+            assertTrue(spool.append(first));
+            assertTrue(spool.append(second));
+
+            assertArrayEquals(first, spool.peek(0));
+            // peeking again without commit returns the same payload
+            assertArrayEquals(first, spool.peek(0));
+            spool.commit(first);
+            assertArrayEquals(second, spool.peek(0));
+            spool.commit(second);
+
+            assertNull(spool.peek(1));
+            assertEquals(0, spool.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void wrapsPayloadsAroundTheEndOfTheRing() throws Exception {
+        try (MessageSpool spool = new MessageSpool(file, 64)) {
+            byte[] first = payload(40, 'a');
+            assertTrue(spool.append(first));
+            spool.commit(spool.peek(0));
+
+            // both the length prefix and the payload cross the end of the ring
+            for (int i = 0; i < 5; i++) {
+                byte[] payload = payload(17 + i, (char) ('b' + i));
+                assertTrue(spool.append(payload));
+                byte[] peeked = spool.peek(0);
+                assertArrayEquals(payload, peeked);
+                spool.commit(peeked);
+            }
+            assertEquals(0, spool.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void rejectsPayloadsWhenFull() throws Exception {
+        try (MessageSpool spool = new MessageSpool(file, 64)) {
+            assertTrue(spool.append(payload(28, 'a')));
+            assertTrue(spool.append(payload(28, 'b')));
+            assertFalse(spool.append(payload(1, 'c')));
+            assertEquals(64, spool.getUsedBytes());
+
+            spool.commit(spool.peek(0));
+            assertTrue(spool.append(payload(28, 'c')));
+        }
+    }
+
+    @Test
+    public void resumesUndeliveredPayloadsAfterReopen() throws Exception {
+        byte[] delivered = payload(10, 'a');
+        byte[] undelivered = payload(20, 'b');
+        try (MessageSpool spool = new MessageSpool(file, 256)) {
+            spool.append(delivered);
+            spool.append(undelivered);
+            spool.commit(spool.peek(0));
+        }
+        try (MessageSpool spool = new MessageSpool(file, 256)) {
+            assertEquals(24, spool.getUsedBytes());
+            assertArrayEquals(undelivered, spool.peek(0));
+        }
+    }
+
+    @Test
+    public void discardsContentOfAnotherCapacity() throws Exception {
+        try (MessageSpool spool = new MessageSpool(file, 256)) {
+            spool.append(payload(10, 'a'));
+        }
+        try (MessageSpool spool = new MessageSpool(file, 128)) {
+            assertEquals(0, spool.getUsedBytes());
+            assertNull(spool.peek(1));
+        }
+    }
+
+    @Test
+    public void discardsContentOnCorruptRecordLength() throws Exception {
+        try (MessageSpool spool = new MessageSpool(file, 256)) {
+            spool.append(payload(10, 'a'));
+        }
+        // the length prefix of the first record follows the 24 byte header
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(24);
+            raf.writeInt(1000);
+        }
+        try (MessageSpool spool = new MessageSpool(file, 256)) {
+            assertNull(spool.peek(0));
+            assertEquals(0, spool.getUsedBytes());
+
+            byte[] payload = payload(5, 'b');
+            assertTrue(spool.append(payload));
+            assertArrayEquals(payload, spool.peek(0));
+        }
+    }
+
+    @Test
+    public void isFullAndEmptyOnceClosed() throws Exception {
+        MessageSpool spool = new MessageSpool(file, 256);
+        spool.append(payload(10, 'a'));
+        spool.close();
+        spool.close();
+
+        assertNull(spool.peek(1));
+        assertFalse(spool.append(payload(10, 'b')));
+    }
+}
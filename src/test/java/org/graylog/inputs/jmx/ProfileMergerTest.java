@@ -0,0 +1,108 @@
+package org.graylog.inputs.jmx;
+
+import org.graylog.inputs.jmx.model.GLAttribute;
+import org.graylog.inputs.jmx.model.GLDerivedField;
+import org.graylog.inputs.jmx.model.GLQuery;
+import org.graylog.inputs.jmx.model.GLQueryConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ProfileMergerTest {
+
+    private static GLAttribute attribute(String name, String label) {
+        GLAttribute attribute = new GLAttribute();
+        attribute.setName(name);
+        attribute.setLabel(label);
+        return attribute;
+    }
+
+    private static GLQuery query(String object, Integer priority, GLAttribute... attributes) {
+        GLQuery query = new GLQuery();
+        query.setObject(object);
+        query.setPriority(priority);
+        query.setAttributes(new ArrayList<>(Arrays.asList(attributes)));
+        return query;
+    }
+
+    private static GLDerivedField derived(String label, String expression) {
+        GLDerivedField field = new GLDerivedField();
+        field.setLabel(label);
+        field.setExpression(expression);
+        return field;
+    }
+
+    private static GLQueryConfig profile(String type, List<GLDerivedField> derived, GLQuery... queries) {
+        GLQueryConfig profile = new GLQueryConfig();
+        profile.setType(type);
+        profile.setQueries(Arrays.asList(queries));
+        profile.setDerived(derived);
+        return profile;
+    }
+
+    @Test
+    public void returnsASingleProfileAsItIs() {
+        GLQueryConfig profile = profile("jvm", null, query("java.lang:type=Memory", null, attribute("HeapMemoryUsage", "heap")));
+        assertSame(profile, ProfileMerger.merge(Collections.singletonList(profile)));
+    }
+
+    @Test
+    public void combinesQueriesOnTheSamePattern() {
+        GLQueryConfig jvm = profile("jvm", null,
+                query("java.lang:type=Threading", 1, attribute("ThreadCount", "threads")),
+                query("java.lang:type=Memory", null, attribute("HeapMemoryUsage", "heap")));
+        GLQueryConfig custom = profile("custom", null,
+                query("java.lang:type=Threading", 5, attribute("ThreadCount", "thread.count"),
+                        attribute("PeakThreadCount", "threads.peak")));
+
+        GLQueryConfig merged = ProfileMerger.merge(Arrays.asList(jvm, custom));
+
+        assertEquals("jvm,custom", merged.getType());
+        assertEquals(2, merged.getQueries().size());
+        GLQuery threading = merged.getQueries().get(0);
+        assertEquals(2, threading.getAttributes().size());
+        // the first profile's label of a conflicting attribute is kept
+        assertEquals("threads", threading.getAttributes().get(0).getLabel());
+        assertEquals("threads.peak", threading.getAttributes().get(1).getLabel());
+        assertEquals(Integer.valueOf(5), threading.getPriority());
+        // the profiles themselves are left as they are
+        assertEquals(1, jvm.getQueries().get(0).getAttributes().size());
+    }
+
+    @Test
+    public void keepsQueriesWithOtherFiltersApart() {
+        GLQuery all = query("kafka.log:type=Log,*", null, attribute("Size", "size"));
+        GLQuery orders = query("kafka.log:type=Log,*", null, attribute("Size", "size"));
+        orders.setFilter("key.topic like 'orders-*'");
+
+        GLQueryConfig merged = ProfileMerger.merge(Arrays.asList(profile("a", null, all), profile("b", null, orders)));
+
+        assertEquals(2, merged.getQueries().size());
+    }
+
+    @Test
+    public void keepsTheFirstDefinitionOfADerivedField() {
+        GLQuery memory = query("java.lang:type=Memory", null, attribute("HeapMemoryUsage", "heap"));
+        GLQueryConfig first = profile("a", Arrays.asList(derived("heap.pct", "heap.used / heap.max * 100")), memory);
+        GLQueryConfig second = profile("b", Arrays.asList(derived("heap.pct", "heap.used / heap.committed * 100"),
+                derived("heap.free", "heap.max - heap.used")), memory);
+
+        GLQueryConfig merged = ProfileMerger.merge(Arrays.asList(first, second));
+
+        assertEquals(2, merged.getDerived().size());
+        assertEquals("heap.used / heap.max * 100", merged.getDerived().get(0).getExpression());
+        assertEquals("heap.free", merged.getDerived().get(1).getLabel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedObjectNames() {
+        ProfileMerger.merge(Arrays.asList(profile("a", null, query("java.lang", null, attribute("A", "a"))),
+                profile("b", null, query("java.lang:type=Memory", null, attribute("A", "a")))));
+    }
+}
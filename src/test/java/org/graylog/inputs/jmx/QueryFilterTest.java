@@ -0,0 +1,106 @@
+package org.graylog.inputs.jmx;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryFilterTest {
+
+    public interface CounterMBean {
+        long getCount();
+
+        String getState();
+    }
+
+    public static class Counter implements CounterMBean {
+        private final long count;
+        private final String state;
+
+        public Counter(long count, String state) {
+            this.count = count;
+            this.state = state;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String getState() {
+            return state;
+        }
+    }
+
+    private Set<ObjectName> query(String filter) throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        server.registerMBean(new Counter(0, "idle"), new ObjectName("test:type=Counter,topic=orders-1"));
+        server.registerMBean(new Counter(5, "busy"), new ObjectName("test:type=Counter,topic=orders-2"));
+        server.registerMBean(new Counter(12, "busy"), new ObjectName("test:type=Counter,topic=payments"));
+        QueryExp queryExp = QueryFilter.compile(filter);
+        return server.queryNames(new ObjectName("test:type=Counter,*"), queryExp);
+    }
+
+    @Test
+    public void comparesAttributes() throws Exception {
+        assertEquals(2, query("Count > 0").size());
+        assertEquals(1, query("Count >= 12").size());
+        assertEquals(1, query("Count = 5").size());
+        assertEquals(2, query("Count != 5").size());
+        assertEquals(2, query("Count <= 5.0").size());
+    }
+
+    @Test
+    public void matchesKeyProperties() throws Exception {
+        assertEquals(2, query("key.topic like orders-*").size());
+        assertEquals(1, query("key.topic = 'payments'").size());
+    }
+
+    @Test
+    public void combinesConditionsByPrecedence() throws Exception {
+        assertEquals(1, query("key.topic like 'orders-*' and not (Count = 0 or State like 'idle')").size());
+        assertEquals(2, query("Count = 0 or Count = 12 and State = 'busy'").size());
+        assertEquals(3, query("NOT Count = 0 OR State = \"idle\"").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyFilter() {
+        QueryFilter.compile("  ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnbalancedParentheses() {
+        QueryFilter.compile("(Count > 0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTrailingTokens() {
+        QueryFilter.compile("Count > 0 Count");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsComparisonOfKeyProperties() {
+        QueryFilter.compile("key.topic > 1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnquotedLikePattern() {
+        QueryFilter.compile("State like idle");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnterminatedString() {
+        QueryFilter.compile("State = 'idle");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLiteralOperand() {
+        QueryFilter.compile("1 = Count");
+    }
+}